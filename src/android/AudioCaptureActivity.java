@@ -167,7 +167,7 @@ public class AudioCaptureActivity extends Activity {
 		if (mIsRecording) {
 			releaseRecorder();
 			try {
-				getContentResolver().delete(mSaveFileUri, null, null);
+				FileHelper.deleteFile(this, mSaveFileUri);
 			} catch (Exception e) {
 				LOG.w("error removing file before closing", e);
 			}
@@ -297,6 +297,8 @@ public class AudioCaptureActivity extends Activity {
 		//Finishing activity with result
 		Intent resultIntent = new Intent();
 		resultIntent.setData(mSaveFileUri);
+		// the result stays in the app, file uris must not fail the file uri exposure check
+		resultIntent.setPackage(getPackageName());
 		setResult(Activity.RESULT_OK, resultIntent);
 		finish();
 	}
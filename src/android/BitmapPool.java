@@ -0,0 +1,121 @@
+package org.apache.cordova.mediacapture;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bounded pool of mutable bitmaps keyed by their allocation size. Bitmaps taken from the pool are
+ * meant to be passed as {@link android.graphics.BitmapFactory.Options#inBitmap}, so consecutive
+ * captures reuse the pixel memory of the previous preview instead of allocating a new one.
+ */
+class BitmapPool {
+	/**
+	 * a pooled bitmap is only handed out if it is at most this factor bigger than needed
+	 */
+	private static final int MAX_SIZE_MULTIPLE = 2;
+
+	private final TreeMap<Integer, ArrayDeque<Bitmap>> mBitmaps = new TreeMap<>();
+	private final long mMaxSize;
+	private long mSize = 0;
+
+	/**
+	 * @param maxSize max bytes held by the pool
+	 */
+	BitmapPool(long maxSize) {
+		this.mMaxSize = maxSize;
+	}
+
+	/**
+	 * takes a bitmap that can hold the given dimensions out of the pool
+	 *
+	 * @return a reusable bitmap or null if none fits
+	 */
+	@Nullable
+	synchronized Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+		int needed = width * height * bytesPerPixel(config);
+		Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBitmaps.ceilingEntry(needed);
+
+		while (entry != null && entry.getKey() <= (long) needed * MAX_SIZE_MULTIPLE) {
+			for (Bitmap bitmap : entry.getValue()) {
+				if (bitmap.getConfig() == config) {
+					remove(entry.getKey(), bitmap);
+					return bitmap;
+				}
+			}
+			entry = mBitmaps.higherEntry(entry.getKey());
+		}
+		return null;
+	}
+
+	/**
+	 * returns a bitmap that is no longer displayed to the pool. Bitmaps that don't fit are recycled.
+	 */
+	synchronized void put(@Nullable Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled())
+			return;
+
+		int size = bitmap.getAllocationByteCount();
+		if (!bitmap.isMutable() || size > mMaxSize) {
+			bitmap.recycle();
+			return;
+		}
+
+		ArrayDeque<Bitmap> bitmaps = mBitmaps.get(size);
+		if (bitmaps == null) {
+			bitmaps = new ArrayDeque<>();
+			mBitmaps.put(size, bitmaps);
+		}
+		bitmaps.addLast(bitmap);
+		mSize += size;
+
+		//evict the biggest bitmaps first, they are the least likely to be reused
+		while (mSize > mMaxSize) {
+			Map.Entry<Integer, ArrayDeque<Bitmap>> biggest = mBitmaps.lastEntry();
+			Bitmap evicted = biggest.getValue().peekFirst();
+			remove(biggest.getKey(), evicted);
+			evicted.recycle();
+		}
+	}
+
+	/**
+	 * recycles all pooled bitmaps
+	 */
+	synchronized void clear() {
+		for (ArrayDeque<Bitmap> bitmaps : mBitmaps.values()) {
+			for (Bitmap bitmap : bitmaps) {
+				bitmap.recycle();
+			}
+		}
+		mBitmaps.clear();
+		mSize = 0;
+	}
+
+	private void remove(int size, Bitmap bitmap) {
+		ArrayDeque<Bitmap> bitmaps = mBitmaps.get(size);
+		bitmaps.remove(bitmap);
+		if (bitmaps.isEmpty()) {
+			mBitmaps.remove(size);
+		}
+		mSize -= size;
+	}
+
+	private static int bytesPerPixel(Bitmap.Config config) {
+		switch (config) {
+			case ALPHA_8:
+				return 1;
+			case RGB_565:
+			case ARGB_4444:
+				return 2;
+			case RGBA_F16:
+				return 8;
+			default:
+				return 4;
+		}
+	}
+}
@@ -18,30 +18,24 @@
 */
 package org.apache.cordova.mediacapture;
 
-import static org.apache.cordova.mediacapture.FileHelper.AUDIO_3GPP;
-import static org.apache.cordova.mediacapture.FileHelper.AUDIO_TYPES;
-import static org.apache.cordova.mediacapture.FileHelper.IMAGE_JPEG;
-import static org.apache.cordova.mediacapture.FileHelper.VIDEO_3GPP;
-import static org.apache.cordova.mediacapture.FileHelper.VIDEO_MP4;
-import static org.apache.cordova.mediacapture.FileHelper.queryContentProvider;
-
 import android.Manifest;
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
 import android.content.ComponentName;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.database.Cursor;
-import android.graphics.BitmapFactory;
-import android.media.MediaPlayer;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 
 import androidx.annotation.Nullable;
@@ -50,9 +44,7 @@ import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.LOG;
 import org.apache.cordova.PermissionHelper;
-import org.apache.cordova.PluginManager;
-import org.apache.cordova.file.FileUtils;
-import org.apache.cordova.file.LocalFilesystemURL;
+import org.apache.cordova.PluginResult;
 import org.apache.cordova.mediacapture.PendingRequests.Request;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -60,12 +52,17 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Capture extends CordovaPlugin {
 
@@ -74,6 +71,7 @@ public class Capture extends CordovaPlugin {
     private static final int CAPTURE_IMAGE = 1;     // Constant for capture image
     private static final int CAPTURE_VIDEO = 2;     // Constant for capture video
     private static final String LOG_TAG = "Capture";
+    private static final int FORMAT_DATA_CHUNK_SIZE = 20; // Results per message of getFormatDataBatch
 
     // Camera or microphone failed to capture image or sound.
     private static final int CAPTURE_INTERNAL_ERR = 0;
@@ -121,7 +119,21 @@ public class Capture extends CordovaPlugin {
 
     private final PendingRequests pendingRequests = new PendingRequests();
 
-    private int numPics;                            // Number of pictures before capture activity
+    private MediaFileResolver mediaFileResolver;    // Builds the MediaFile JSON, resolves the File plugin once
+
+    private CapturePipeline pipeline;               // Post-processing of captured media files
+
+    private WarmStart warmStart;                     // Files and warm-up done ahead by prepareCapture
+
+    // Segments and the final result of segmented recordings are handled in order on one thread
+    private final ExecutorService segmentExecutor =
+            Executors.newSingleThreadExecutor(new CaptureExecutor.CaptureThreadFactory("CaptureSegments"));
+    // Held here, the capture activity only keeps a weak reference
+    private CaptureActivity.SegmentListener segmentListener;
+    // Segments handed to the pipeline, only used on the segment executor
+    private final Set<Uri> processedSegments = new HashSet<>();
+
+    private long captureStart;                      // DATE_ADDED in seconds when the capture activity was started
     private Uri fileUri;
 
 //    public void setContext(Context mCtx)
@@ -136,6 +148,14 @@ public class Capture extends CordovaPlugin {
     protected void pluginInitialize() {
         super.pluginInitialize();
 
+        mediaFileResolver = new MediaFileResolver(webView);
+        pipeline = new CapturePipeline(cordova.getContext(), this::onStageDone, this::onItemFailed, this::onStageProgress);
+        warmStart = new WarmStart(cordova.getContext(), cordova.getThreadPool());
+        cordova.getThreadPool().execute(() -> {
+            FileHelper.deleteStaleScratchFiles(cordova.getContext());
+            FileHelper.deleteStalePreparedFiles(cordova.getContext(), WarmStart.MAX_AGE_MS);
+        });
+
         // CB-10670: The CAMERA permission does not need to be requested unless it is declared
         // in AndroidManifest.xml. This plugin does not declare it, but others may and so we must
         // check the package info to determine if the permission is present.
@@ -163,8 +183,27 @@ public class Capture extends CordovaPlugin {
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
         switch (action) {
             case "getFormatData": {
-                JSONObject obj = getFormatData(args.getString(0), args.getString(1));
-                callbackContext.success(obj);
+                final String filePath = args.getString(0);
+                final String mimeType = args.optString(1, null);
+                // probing a file is I/O, keep it off the plugin thread
+                cordova.getThreadPool().execute(() -> {
+                    try {
+                        callbackContext.success(FormatDataReader.read(cordova.getContext(), filePath, mimeType));
+                    } catch (JSONException e) {
+                        callbackContext.error(createErrorObject(CAPTURE_INTERNAL_ERR, e.getMessage()));
+                    }
+                });
+                return true;
+            }
+            case "getFormatDataBatch": {
+                final JSONArray files = args.getJSONArray(0);
+                cordova.getThreadPool().execute(() -> getFormatDataBatch(files, callbackContext));
+                return true;
+            }
+            case "prepareCapture": {
+                final String type = args.getString(0);
+                final JSONObject options = args.isNull(1) ? new JSONObject() : args.getJSONObject(1);
+                cordova.getThreadPool().execute(() -> prepareCapture(type, options, callbackContext));
                 return true;
             }
             default:
@@ -173,6 +212,12 @@ public class Capture extends CordovaPlugin {
 
         JSONObject options = args.optJSONObject(0);
 
+        if (action.startsWith("capture") && isDeferredInUse(options)) {
+            callbackContext.error(createErrorObject(CAPTURE_INVALID_ARGUMENT,
+                    "Deferred storage can't be combined with onMediaFile or segments."));
+            return true;
+        }
+
         switch (action) {
             case "captureAudio":
                 this.captureAudio(pendingRequests.createRequest(CAPTURE_AUDIO, options, callbackContext));
@@ -199,79 +244,128 @@ public class Capture extends CordovaPlugin {
     }
 
     /**
-     * Provides the media data file data depending on it's mime type
-     *
-     * @param filePath path to the file
-     * @param mimeType of the file
-     * @return a MediaFileData object
+     * @return true if deferred storage is combined with media files that are used while the
+     * capture continues. Deferred files are moved once the request resolves, those media files
+     * would point to deleted files.
      */
-    private JSONObject getFormatData(String filePath, String mimeType) throws JSONException {
-        Uri fileUrl = filePath.startsWith("file:") ? Uri.parse(filePath) : Uri.fromFile(new File(filePath));
-        JSONObject obj = new JSONObject();
-        // setup defaults
-        obj.put("height", 0);
-        obj.put("width", 0);
-        obj.put("bitrate", 0);
-        obj.put("duration", 0);
-        obj.put("codecs", "");
-
-        // If the mimeType isn't set the rest will fail
-        // so let's see if we can determine it.
-        if (mimeType == null || mimeType.equals("") || "null".equals(mimeType)) {
-            mimeType = FileHelper.getMimeType(fileUrl, cordova.getContext());
-        }
-        LOG.d(LOG_TAG, "Mime type = " + mimeType);
-
-        if (mimeType.equals(IMAGE_JPEG) || filePath.endsWith(".jpg")) {
-            obj = getImageData(fileUrl, obj);
-        } else if (Arrays.asList(AUDIO_TYPES).contains(mimeType)) {
-            obj = getAudioVideoData(filePath, obj, false);
-        } else if (mimeType.equals(VIDEO_3GPP) || mimeType.equals(VIDEO_MP4)) {
-            obj = getAudioVideoData(filePath, obj, true);
-        }
-        return obj;
+    private static boolean isDeferredInUse(@Nullable JSONObject options) {
+        return options != null && FileHelper.STORAGE_DEFERRED.equals(options.optString("storage"))
+                && (options.optBoolean("progressive", false)
+                || options.optInt("segmentDuration", 0) > 0 || options.optInt("segmentSize", 0) > 0);
     }
 
     /**
-     * Get the Image specific attributes
+     * Does the work of a capture that doesn't depend on the user ahead of time: looks up the
+     * cameras and creates the target file. The next capture of the
+     * same type and options within {@link WarmStart#MAX_AGE_MS} starts faster. Only files of the
+     * app are prepared, a media store entry would be left in the gallery if the app dies before
+     * the prepared file is used or deleted.
      *
-     * @param fileUrl uri to the file
-     * @param obj     represents the Media File Data
-     * @return a JSONObject that represents the Media File Data
-     * @throws JSONException
+     * @param type    captureImage or captureVideo
+     * @param options the capture options that will be used
      */
-    private JSONObject getImageData(Uri fileUrl, JSONObject obj) throws JSONException {
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(fileUrl.getPath(), options);
-        obj.put("height", options.outHeight);
-        obj.put("width", options.outWidth);
-        return obj;
+    private void prepareCapture(String type, JSONObject options, CallbackContext callbackContext) {
+        String action;
+        switch (type) {
+            case "captureImage":
+                action = MediaStore.ACTION_IMAGE_CAPTURE;
+                break;
+            case "captureVideo":
+                action = MediaStore.ACTION_VIDEO_CAPTURE;
+                break;
+            default:
+                callbackContext.error(createErrorObject(CAPTURE_INVALID_ARGUMENT, "Unsupported type " + type));
+                return;
+        }
+
+        // same resolution of the options as execute() and createRequest()
+        boolean internal = options.optBoolean("useInternalCameraApp", false)
+                || preferences.getBoolean("useInternalCameraApp", false);
+        String storage = options.optString("storage", FileHelper.STORAGE_GALLERY);
+        String imageType = null;
+        if (MediaStore.ACTION_IMAGE_CAPTURE.equals(action)) {
+            imageType = internal
+                    ? ImageEncoding.resolveFormat(options.optString("encodingType", "jpeg")).mimeType
+                    : FileHelper.IMAGE_JPEG;
+        }
+
+        if (internal) {
+            WarmStart.warmUp(cordova.getContext());
+        }
+
+        try {
+            Uri uri;
+            if (internal && FileHelper.STORAGE_PRIVATE.equals(storage)) {
+                uri = FileHelper.createPreparedFile(action, cordova.getContext(), imageType);
+            } else if (internal && FileHelper.STORAGE_DEFERRED.equals(storage)) {
+                uri = FileHelper.createScratchFile(action, cordova.getContext(), imageType);
+            } else {
+                callbackContext.success();
+                return;
+            }
+            warmStart.put(getFileKind(storage, internal, action, imageType), uri);
+        } catch (IllegalArgumentException | IOException | SecurityException e) {
+            // the file is created when the capture starts, e.g. once permissions are granted
+            LOG.w(LOG_TAG, "Could not prepare the capture file", e);
+        }
+        callbackContext.success();
     }
 
     /**
-     * Get the Image specific attributes
+     * Probes many files in parallel and sends the results back in chunks as they complete.
+     * Each chunk is {"items": [{"index": n, "data": MediaFileData}], "done": boolean}.
      *
-     * @param filePath path to the file
-     * @param obj      represents the Media File Data
-     * @param video    if true get video attributes as well
-     * @return a JSONObject that represents the Media File Data
-     * @throws JSONException
+     * @param files           MediaFile JSON objects with fullPath and type, or paths
+     * @param callbackContext kept until the last chunk is sent
      */
-    private JSONObject getAudioVideoData(String filePath, JSONObject obj, boolean video) throws JSONException {
-        MediaPlayer player = new MediaPlayer();
-        try {
-            player.setDataSource(filePath);
-            player.prepare();
-            obj.put("duration", player.getDuration() / 1000);
-            if (video) {
-                obj.put("height", player.getVideoHeight());
-                obj.put("width", player.getVideoWidth());
+    private void getFormatDataBatch(JSONArray files, CallbackContext callbackContext) {
+        final Context context = cordova.getContext();
+        CompletionService<JSONObject> completion = new ExecutorCompletionService<>(FormatDataReader.getExecutor());
+        for (int i = 0; i < files.length(); i++) {
+            final int index = i;
+            JSONObject file = files.optJSONObject(i);
+            final String path = file != null ? file.optString("fullPath") : files.optString(i);
+            final String type = file != null ? file.optString("type", null) : null;
+            completion.submit(() -> {
+                JSONObject item = new JSONObject();
+                item.put("index", index);
+                item.put("data", FormatDataReader.read(context, path, type));
+                return item;
+            });
+        }
+
+        JSONArray chunk = new JSONArray();
+        for (int done = 1; done <= files.length(); done++) {
+            try {
+                chunk.put(completion.take().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                callbackContext.error(createErrorObject(CAPTURE_INTERNAL_ERR, "Interrupted."));
+                return;
+            } catch (ExecutionException e) {
+                // the item is left out, it stays null on the javascript side
+                LOG.e(LOG_TAG, "Error reading format data", e);
+            }
+
+            if (chunk.length() >= FORMAT_DATA_CHUNK_SIZE && done < files.length()) {
+                sendFormatDataChunk(callbackContext, chunk, false);
+                chunk = new JSONArray();
             }
-        } catch (IOException e) {
-            LOG.d(LOG_TAG, "Error: loading video file");
         }
-        return obj;
+        sendFormatDataChunk(callbackContext, chunk, true);
+    }
+
+    private void sendFormatDataChunk(CallbackContext callbackContext, JSONArray items, boolean done) {
+        JSONObject chunk = new JSONObject();
+        try {
+            chunk.put("items", items);
+            chunk.put("done", done);
+        } catch (JSONException e) {
+            // This will never happen
+        }
+        PluginResult result = new PluginResult(PluginResult.Status.OK, chunk);
+        result.setKeepCallback(!done);
+        callbackContext.sendPluginResult(result);
     }
 
     private boolean isMissingPermissions(Request req, ArrayList<String> permissions) {
@@ -299,11 +393,14 @@ public class Capture extends CordovaPlugin {
     }
 
     private boolean isMissingCameraPermissions(Request req, String mediaPermission) {
-        ArrayList<String> cameraPermissions = new ArrayList<>(Arrays.asList(storagePermissions));
+        // the internal camera writes private captures to the app's own storage, no permission needed
+        boolean mediaStore = !(req.useInternalCameraApp && FileHelper.STORAGE_PRIVATE.equals(req.storage));
+        ArrayList<String> cameraPermissions = mediaStore
+                ? new ArrayList<>(Arrays.asList(storagePermissions)) : new ArrayList<>();
         if (cameraPermissionInManifest) {
             cameraPermissions.add(Manifest.permission.CAMERA);
         }
-        if (mediaPermission != null && android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+        if (mediaStore && mediaPermission != null && android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             cameraPermissions.add(mediaPermission);
         }
         return isMissingPermissions(req, cameraPermissions);
@@ -324,19 +421,24 @@ public class Capture extends CordovaPlugin {
             setActivityEnabled(this.cordova.getActivity(), AudioCaptureActivity.class.getCanonicalName(), true);
 
             Intent intent = new Intent(MediaStore.Audio.Media.RECORD_SOUND_ACTION);
-            fileUri = FileHelper.getAndCreateFile(MediaStore.Audio.Media.RECORD_SOUND_ACTION, cordova.getActivity());
-            intent.putExtra(MediaStore.EXTRA_OUTPUT, fileUri);
 
             PackageManager packageManager = cordova.getActivity().getPackageManager();
             List<ResolveInfo> activities = packageManager.queryIntentActivities(intent,
                     PackageManager.MATCH_DEFAULT_ONLY);
 
+            // Only our own recorder can write to app-private files
+            ComponentName recorder = intent.resolveActivity(packageManager);
+            boolean internal = activities.isEmpty()
+                    || (recorder != null && recorder.getPackageName().equals(cordova.getContext().getPackageName()));
+            fileUri = createFile(req, internal, MediaStore.Audio.Media.RECORD_SOUND_ACTION, null);
+            intent.putExtra(MediaStore.EXTRA_OUTPUT, fileUri);
+
             if (activities.isEmpty()) {
                 LOG.w(LOG_TAG, "No Activity found to handle Audio Capture. Forcing internal.");
                 intent = new Intent(cordova.getContext(), CaptureActivity.class);
                 intent.putExtra(MediaStore.EXTRA_OUTPUT, fileUri);
             } else {
-                LOG.w(LOG_TAG, String.format("Found Activities: %s", intent.resolveActivity(cordova.getActivity().getPackageManager()).flattenToString()));
+                LOG.w(LOG_TAG, String.format("Found Activities: %s", recorder.flattenToString()));
             }
 
             LOG.d(LOG_TAG, "Recording audio and saving to: " + fileUri.toString());
@@ -355,28 +457,75 @@ public class Capture extends CordovaPlugin {
     private void captureImage(Request req) {
         if (isMissingCameraPermissions(req, Manifest.permission.READ_MEDIA_IMAGES)) return;
 
-        // Save the number of images currently on disk for later
-        Cursor cursor = queryImgDB(FileHelper.isExternalContentStore()
-                ? MediaStore.Images.Media.EXTERNAL_CONTENT_URI : MediaStore.Images.Media.INTERNAL_CONTENT_URI);
-        this.numPics = cursor.getCount();
-        cursor.close();
+        // Remember when the capture started to find images the camera app added on its own
+        this.captureStart = System.currentTimeMillis() / 1000;
+
+        // Only the internal camera can re-encode, external apps always deliver jpeg
+        ImageEncoding encoding = new ImageEncoding(
+                req.useInternalCameraApp ? ImageEncoding.resolveFormat(req.encodingType) : ImageEncoding.Format.JPEG,
+                req.encodingQuality, req.maxWidth, req.maxHeight);
 
         try {
-            fileUri = FileHelper.getAndCreateFile(MediaStore.ACTION_IMAGE_CAPTURE, cordova.getActivity());
-        } catch (IllegalArgumentException e) {
+            fileUri = createFile(req, req.useInternalCameraApp, MediaStore.ACTION_IMAGE_CAPTURE, encoding.format.mimeType);
+        } catch (IllegalArgumentException | IOException e) {
             pendingRequests.resolveWithFailure(req, createErrorObject(CAPTURE_INTERNAL_ERR, "error creating file"));
+            return;
         }
 
         Intent intent = req.useInternalCameraApp
                 ? new Intent(MediaStore.ACTION_IMAGE_CAPTURE, fileUri, cordova.getContext(), CaptureActivity.class)
                 : new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
         intent.putExtra(MediaStore.EXTRA_OUTPUT, fileUri);
+        if (req.useInternalCameraApp) {
+            encoding.putExtras(intent);
+            intent.putExtra(CaptureActivity.EXTRA_START_TIME, SystemClock.elapsedRealtime());
+
+            // Take all remaining pictures in one activity launch
+            long remaining = req.limit - req.captured;
+            if (req.burst && remaining > 1) {
+                intent.putExtra(CaptureActivity.EXTRA_BURST_COUNT, (int) remaining);
+            }
+        }
 
         LOG.d(LOG_TAG, "Taking a picture and saving to: " + fileUri.toString());
         setActivityEnabled(this.cordova.getActivity(), CaptureActivity.class.getCanonicalName(), true);
         this.cordova.startActivityForResult(this, intent, req.requestCode);
     }
 
+    /**
+     * Creates the file the capture is written to. Private and deferred captures of our own
+     * activities go to files of the app, external apps always get a media store entry.
+     *
+     * @param internal  true if the capture is done by one of our activities
+     * @param action    capture intent action
+     * @param imageType mime type of images, ignored for audio and video
+     */
+    private Uri createFile(Request req, boolean internal, String action, String imageType) throws IOException {
+        // a file prepared by prepareCapture for the same kind of capture
+        Uri prepared = warmStart.take(getFileKind(req.storage, internal, action, imageType));
+        if (prepared != null) {
+            return prepared;
+        }
+        return newFile(req.storage, internal, action, imageType);
+    }
+
+    private Uri newFile(String storage, boolean internal, String action, String imageType) throws IOException {
+        if (internal && FileHelper.STORAGE_PRIVATE.equals(storage)) {
+            return FileHelper.createPrivateFile(action, cordova.getContext(), imageType);
+        }
+        if (internal && FileHelper.STORAGE_DEFERRED.equals(storage)) {
+            return FileHelper.createScratchFile(action, cordova.getContext(), imageType);
+        }
+        return FileHelper.getAndCreateFile(action, cordova.getActivity(), imageType != null ? imageType : FileHelper.IMAGE_JPEG);
+    }
+
+    /**
+     * @return key of the files created for the arguments, a prepared file is only used for the same key
+     */
+    private static String getFileKind(String storage, boolean internal, String action, String imageType) {
+        return action + "|" + (internal ? storage : FileHelper.STORAGE_GALLERY) + "|" + imageType;
+    }
+
     private static void createWritableFile(File file) throws IOException {
         file.createNewFile();
         file.setWritable(true, false);
@@ -389,9 +538,10 @@ public class Capture extends CordovaPlugin {
         if (isMissingCameraPermissions(req, Manifest.permission.READ_MEDIA_VIDEO)) return;
 
         try {
-            fileUri = FileHelper.getAndCreateFile(MediaStore.ACTION_VIDEO_CAPTURE, cordova.getActivity());
-        } catch (IllegalArgumentException e) {
+            fileUri = createFile(req, req.useInternalCameraApp, MediaStore.ACTION_VIDEO_CAPTURE, null);
+        } catch (IllegalArgumentException | IOException e) {
             pendingRequests.resolveWithFailure(req, createErrorObject(CAPTURE_INTERNAL_ERR, "Canceled."));
+            return;
         }
 
         Intent intent = req.useInternalCameraApp
@@ -401,6 +551,18 @@ public class Capture extends CordovaPlugin {
 
         intent.putExtra(MediaStore.EXTRA_DURATION_LIMIT, req.duration);
         intent.putExtra(MediaStore.EXTRA_VIDEO_QUALITY, req.quality);
+        if (req.useInternalCameraApp) {
+            new VideoProfile(req.maxResolution, req.videoBitrate, req.audioBitrate, req.frameRate, req.videoCodec)
+                    .putExtras(intent);
+            intent.putExtra(CaptureActivity.EXTRA_START_TIME, SystemClock.elapsedRealtime());
+        }
+        if (isSegmented(req)) {
+            intent.putExtra(CaptureActivity.EXTRA_SEGMENT_DURATION, req.segmentDuration);
+            intent.putExtra(CaptureActivity.EXTRA_SEGMENT_SIZE, req.segmentSize);
+            // each finished segment is processed while the recording continues
+            segmentListener = uri -> segmentExecutor.execute(() -> onSegment(req, uri));
+            CaptureActivity.setSegmentListener(segmentListener);
+        }
 
         LOG.d(LOG_TAG, "Taking a video and saving to: " + fileUri.toString());
         setActivityEnabled(this.cordova.getActivity(), CaptureActivity.class.getCanonicalName(), true);
@@ -423,6 +585,8 @@ public class Capture extends CordovaPlugin {
 		if (CAPTURE_IMAGE == req.action || CAPTURE_VIDEO == req.action) {
 			//disable ImageActivity alias to prevent other apps using this one
 			setActivityEnabled(this.cordova.getActivity(), CaptureActivity.class.getCanonicalName(), false);
+			CaptureActivity.setSegmentListener(null);
+			segmentListener = null;
 		} else if (CAPTURE_AUDIO == req.action) {
 			setActivityEnabled(this.cordova.getActivity(), AudioCaptureActivity.class.getCanonicalName(), false);
 		}
@@ -446,18 +610,19 @@ public class Capture extends CordovaPlugin {
                 }
             };
 
-            this.cordova.getThreadPool().execute(processActivityResult);
+            // segmented recordings finish after their last segment is handed to the pipeline
+            (isSegmented(req) ? segmentExecutor : this.cordova.getThreadPool()).execute(processActivityResult);
             return;
         }
 
 		// There is no image captured so delete file
-        Capture.this.cordova.getActivity().getContentResolver().delete(fileUri, null, null);
+        FileHelper.deleteFile(cordova.getContext(), fileUri);
 
         // If canceled
         if (resultCode == Activity.RESULT_CANCELED) {
             // If we have partial results send them back to the user
-            if (req.results.length() > 0) {
-                pendingRequests.resolveWithSuccess(req);
+            if (req.captured > 0) {
+                cordova.getThreadPool().execute(() -> finishRequest(req));
             }
             // user canceled the action
             else {
@@ -469,8 +634,8 @@ public class Capture extends CordovaPlugin {
 
         // If something else
         // If we have partial results send them back to the user
-        if (req.results.length() > 0) {
-            pendingRequests.resolveWithSuccess(req);
+        if (req.captured > 0) {
+            cordova.getThreadPool().execute(() -> finishRequest(req));
         }
         // something bad happened
         else {
@@ -488,11 +653,11 @@ public class Capture extends CordovaPlugin {
             return;
         }
 
-        req.results.put(mediaFile);
+        process(req, fileUri, mediaFile);
 
-        if (req.results.length() >= req.limit) {
+        if (req.captured >= req.limit) {
             // Send Uri back to JavaScript for listening to audio
-            pendingRequests.resolveWithSuccess(req);
+            finishRequest(req);
         } else {
             // still need to capture more audio clips
             captureAudio(req);
@@ -500,6 +665,12 @@ public class Capture extends CordovaPlugin {
     }
 
     public void onImageActivityResult(Request req, Intent intent) {
+        ArrayList<Uri> burstUris = intent != null ? intent.getParcelableArrayListExtra(CaptureActivity.EXTRA_BURST_URIS) : null;
+        if (burstUris != null) {
+            onBurstActivityResult(req, intent, burstUris);
+            return;
+        }
+
         // Create a file object from the uri
         JSONObject mediaFile = createMediaFile(intent);
 
@@ -508,21 +679,70 @@ public class Capture extends CordovaPlugin {
             return;
         }
 
+        addCaptureMetrics(mediaFile, intent);
+
         // Add image to results
-        req.results.put(mediaFile);
+        process(req, fileUri, mediaFile);
 
-        checkForDuplicateImage();
+        checkForDuplicateImage(req);
 
-        if (req.results.length() >= req.limit) {
+        if (req.captured >= req.limit) {
             // Send Uri back to JavaScript for viewing image
-            pendingRequests.resolveWithSuccess(req);
+            finishRequest(req);
         } else {
             // still need to capture more images
             captureImage(req);
         }
     }
 
+    /**
+     * Adds all pictures of a burst to the results
+     *
+     * @param req    the pending request
+     * @param intent result of the capture activity
+     * @param uris   saved pictures in the order they were taken
+     */
+    private void onBurstActivityResult(Request req, Intent intent, List<Uri> uris) {
+        // the first picture was meant for fileUri, it is missing if saving it failed
+        if (!uris.contains(fileUri)) {
+            FileHelper.deleteFile(cordova.getContext(), fileUri);
+        }
+
+        List<JSONObject> mediaFiles = mediaFileResolver.resolveAll(cordova.getContext(), uris);
+        for (int i = 0; i < uris.size(); i++) {
+            Uri uri = uris.get(i);
+            JSONObject mediaFile = mediaFiles.get(i);
+            if (mediaFile == null) {
+                pendingRequests.resolveWithFailure(req, createErrorObject(CAPTURE_INTERNAL_ERR, "Error: no mediaFile created from " + uri));
+                return;
+            }
+
+            addCaptureMetrics(mediaFile, intent);
+            process(req, uri, mediaFile);
+        }
+
+        // a burst stopped early by the user returns the pictures taken so far
+        finishRequest(req);
+    }
+
     public void onVideoActivityResult(Request req, Intent intent) {
+        if (isSegmented(req)) {
+            // segments are processed while recording, the ones that didn't reach the listener,
+            // e.g. because the plugin was restored after its process died, are processed now
+            ArrayList<Uri> segmentUris = intent != null ? intent.getParcelableArrayListExtra(CaptureActivity.EXTRA_SEGMENT_URIS) : null;
+            if (segmentUris != null) {
+                for (Uri uri : segmentUris) {
+                    if (!processedSegments.contains(uri)) {
+                        onSegment(req, uri);
+                    }
+                }
+            }
+            processedSegments.clear();
+            // the limit doesn't apply
+            finishRequest(req);
+            return;
+        }
+
         // Create a file object from the uri
         JSONObject mediaFile = createMediaFile(intent);
 
@@ -531,11 +751,13 @@ public class Capture extends CordovaPlugin {
             return;
         }
 
-        req.results.put(mediaFile);
+        addCaptureMetrics(mediaFile, intent);
+
+        process(req, fileUri, mediaFile);
 
-        if (req.results.length() >= req.limit) {
+        if (req.captured >= req.limit) {
             // Send Uri back to JavaScript for viewing video
-            pendingRequests.resolveWithSuccess(req);
+            finishRequest(req);
         } else {
             // still need to capture more video clips
             captureVideo(req);
@@ -543,6 +765,143 @@ public class Capture extends CordovaPlugin {
     }
 
 
+    /**
+     * Hands a captured media file to the post-processing pipeline, which runs while the next
+     * capture is taken. The media file is added to the results once all stages are done.
+     *
+     * @param req       the pending request
+     * @param uri       uri of the captured media
+     * @param mediaFile the media file JSON
+     */
+    private void process(Request req, Uri uri, JSONObject mediaFile) {
+        int index = pendingRequests.startProcessing(req, pipeline.getStages(req));
+        pipeline.submit(req, new CapturePipeline.Item(index, uri, mediaFile));
+    }
+
+    private void onStageDone(Request req, CapturePipeline.Item item, @Nullable String stage) {
+        if (pendingRequests.completeStage(req, item.index, stage, item.mediaFile)) {
+            resolveWithSuccess(req);
+        }
+    }
+
+    /**
+     * A media file could not be post-processed, its request would never resolve otherwise
+     */
+    private void onItemFailed(Request req, CapturePipeline.Item item, Exception e) {
+        pendingRequests.failProcessing(req, item.index,
+                createErrorObject(CAPTURE_INTERNAL_ERR, "Error processing " + item.uri + ": " + e.getMessage()));
+    }
+
+    /**
+     * Adds a finished segment of a segmented recording to the results
+     */
+    private void onSegment(Request req, Uri uri) {
+        processedSegments.add(uri);
+        JSONObject mediaFile = createMediaFile(uri);
+        if (mediaFile == null) {
+            LOG.e(LOG_TAG, "Error: no mediaFile created from segment " + uri);
+            return;
+        }
+        process(req, uri, mediaFile);
+    }
+
+    /**
+     * @return true if the recording of the request rolls over to new files, only the internal
+     * camera can do that
+     */
+    private static boolean isSegmented(Request req) {
+        return req.action == CAPTURE_VIDEO && req.useInternalCameraApp
+                && (req.segmentDuration > 0 || req.segmentSize > 0);
+    }
+
+    private void onStageProgress(Request req, CapturePipeline.Item item, String stage, float progress) {
+        pendingRequests.sendProgress(req, item.index, stage, progress);
+    }
+
+    /**
+     * No more media files are captured for the request, it is resolved once the last one is
+     * processed
+     */
+    private void finishRequest(Request req) {
+        if (pendingRequests.finish(req)) {
+            resolveWithSuccess(req);
+        }
+    }
+
+    /**
+     * Publishes the scratch files of a deferred request to the media store and sends the results
+     *
+     * @param req the request to be resolved
+     */
+    private void resolveWithSuccess(Request req) {
+        if (FileHelper.STORAGE_DEFERRED.equals(req.storage)) {
+            publishScratchFiles(req);
+        }
+        pendingRequests.resolveWithSuccess(req);
+    }
+
+    /**
+     * Replaces the results of scratch files with their media store entries. All entries are
+     * inserted and queried with one batch each, results that could not be published keep
+     * their file uri.
+     */
+    private void publishScratchFiles(Request req) {
+        Context context = cordova.getContext();
+        List<Integer> indices = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        List<String> mimeTypes = new ArrayList<>();
+        for (int i = 0; i < req.results.length(); i++) {
+            JSONObject mediaFile = req.results.optJSONObject(i);
+            Uri uri = mediaFile != null ? Uri.parse(mediaFile.optString("fullPath")) : null;
+            if (uri != null && FileHelper.isScratchFile(context, uri)) {
+                indices.add(i);
+                files.add(new File(uri.getPath()));
+                mimeTypes.add(mediaFile.optString("type", null));
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+
+        List<Uri> uris = MediaStorePublisher.publish(context, files, mimeTypes);
+        List<Integer> publishedIndices = new ArrayList<>();
+        List<Uri> published = new ArrayList<>();
+        for (int i = 0; i < uris.size(); i++) {
+            if (uris.get(i) != null) {
+                publishedIndices.add(indices.get(i));
+                published.add(uris.get(i));
+            }
+        }
+
+        List<JSONObject> mediaFiles = mediaFileResolver.resolveAll(context, published);
+        for (int i = 0; i < mediaFiles.size(); i++) {
+            JSONObject mediaFile = mediaFiles.get(i);
+            if (mediaFile == null) {
+                continue;
+            }
+
+            try {
+                // keep what was added to the capture, e.g. metrics and thumbnail
+                JSONObject scratch = req.results.getJSONObject(publishedIndices.get(i));
+                for (Iterator<String> keys = scratch.keys(); keys.hasNext(); ) {
+                    String key = keys.next();
+                    if (!mediaFile.has(key) && !"localURL".equals(key)) {
+                        mediaFile.put(key, scratch.get(key));
+                    }
+                }
+                req.results.put(publishedIndices.get(i), mediaFile);
+
+                // the scratch file is gone, identical content is found at the published entry
+                String hash = mediaFile.optString("hash", null);
+                if (hash != null) {
+                    HashIndex.put(context, hash, published.get(i));
+                }
+            } catch (JSONException e) {
+                LOG.e(LOG_TAG, "Error replacing published media file", e);
+            }
+        }
+    }
+
     /**
      * Creates a JSONObject that represents a File from the Uri
      *
@@ -564,68 +923,44 @@ public class Capture extends CordovaPlugin {
                     (path, uri) -> LOG.i(LOG_TAG, "onScanCompleted"));
         }
 
-        JSONObject obj = new JSONObject();
+        return createMediaFile(fileUri);
+    }
 
-        File fp = webView.getResourceApi().mapUriToFile(fileUri);
+    /**
+     * Creates a JSONObject that represents a File from the Uri
+     *
+     * @param uri content or file uri of the captured media
+     * @return a JSONObject that represents a File
+     */
+    public JSONObject createMediaFile(Uri uri) {
+        return mediaFileResolver.resolve(cordova.getContext(), uri);
+    }
 
-        Class webViewClass = webView.getClass();
-        PluginManager pm = null;
-        try {
-            Method gpm = webViewClass.getMethod("getPluginManager");
-            pm = (PluginManager) gpm.invoke(webView);
-        } catch (NoSuchMethodException e) {
-        } catch (IllegalAccessException e) {
-        } catch (InvocationTargetException e) {
-        }
-        if (pm == null) {
-            try {
-                Field pmf = webViewClass.getField("pluginManager");
-                pm = (PluginManager) pmf.get(webView);
-            } catch (NoSuchFieldException e) {
-            } catch (IllegalAccessException e) {
-            }
+    /**
+     * Adds the measurements reported by the internal capture activity to the media file
+     *
+     * @param mediaFile the media file JSON
+     * @param intent    result of the capture activity
+     */
+    private void addCaptureMetrics(JSONObject mediaFile, @Nullable Intent intent) {
+        if (intent == null || (!intent.hasExtra(CaptureActivity.EXTRA_PEAK_MEMORY)
+                && !intent.hasExtra(CaptureActivity.EXTRA_TIME_TO_FIRST_FRAME))) {
+            return;
         }
 
         try {
-            FileUtils filePlugin = (FileUtils) pm.getPlugin("File");
-            LocalFilesystemURL url = filePlugin.filesystemURLforLocalPath(fp.getAbsolutePath());
-
-            // File properties
-            obj.put("name", fp.getName());
-            obj.put("fullPath", Uri.fromFile(fp));
-            if (url != null) {
-                obj.put("localURL", url.toString());
-            }
-            // Because of an issue with MimeTypeMap.getMimeTypeFromExtension() all .3gpp files
-            // are reported as video/3gpp. I'm doing this hacky check of the URI to see if it
-            // is stored in the audio or video content store.
-            if (fp.getAbsoluteFile().toString().endsWith(".3gp") || fp.getAbsoluteFile().toString().endsWith(".3gpp")) {
-                if (fileUri.toString().contains("/audio/")) {
-                    obj.put("type", AUDIO_3GPP);
-                } else {
-                    obj.put("type", VIDEO_3GPP);
-                }
-            } else {
-                obj.put("type", FileHelper.getMimeType(Uri.fromFile(fp), context));
+            JSONObject metrics = new JSONObject();
+            if (intent.hasExtra(CaptureActivity.EXTRA_PEAK_MEMORY)) {
+                metrics.put("peakMemory", intent.getLongExtra(CaptureActivity.EXTRA_PEAK_MEMORY, 0));
             }
-
-            obj.put("lastModifiedDate", fp.lastModified());
-            obj.put("size", fp.length());
-        } catch (Exception e) {
-            e.printStackTrace();
-            obj = null;
-        }
-
-        if (obj == null) {
-            try {
-                obj = queryContentProvider(context, fileUri, 0);
-
-            } catch (Exception e) {
-                LOG.e(LOG_TAG, "Error: no mediaFile created from " + fileUri);
+            long timeToFirstFrame = intent.getLongExtra(CaptureActivity.EXTRA_TIME_TO_FIRST_FRAME, -1);
+            if (timeToFirstFrame >= 0) {
+                metrics.put("timeToFirstFrame", timeToFirstFrame);
             }
+            mediaFile.put("metrics", metrics);
+        } catch (JSONException e) {
+            LOG.e(LOG_TAG, "Error adding capture metrics", e);
         }
-
-        return obj;
     }
 
     private JSONObject createErrorObject(int code, String message) {
@@ -640,40 +975,62 @@ public class Capture extends CordovaPlugin {
     }
 
     /**
-     * Creates a cursor that can be used to determine how many images we have.
-     *
-     * @return a cursor
+     * Used to find out if we are in a situation where the Camera Intent adds to images
+     * to the content store. Only images added since the capture started are queried, so the
+     * cost doesn't depend on the size of the gallery.
      */
-    private Cursor queryImgDB(Uri contentStore) {
-        return this.cordova.getActivity().getContentResolver().query(
-                contentStore,
-                new String[]{MediaStore.Images.Media._ID},
-                null,
-                null,
-                null);
+    private void checkForDuplicateImage(Request req) {
+        // the internal camera only writes to fileUri
+        if (req.useInternalCameraApp) {
+            return;
+        }
+
+        long fileId;
+        try {
+            fileId = ContentUris.parseId(fileUri);
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+            fileId = -1;
+        }
+
+        Uri contentStore = FileHelper.isExternalContentStore() ? MediaStore.Images.Media.EXTERNAL_CONTENT_URI : MediaStore.Images.Media.INTERNAL_CONTENT_URI;
+        Bundle bundle = new Bundle();
+        bundle.putString(ContentResolver.QUERY_ARG_SQL_SELECTION,
+                MediaStore.Images.Media.DATE_ADDED + " >= ? AND " + MediaStore.Images.Media._ID + " != ?");
+        bundle.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS,
+                new String[]{String.valueOf(captureStart), String.valueOf(fileId)});
+        // more than one other new image means they weren't all added by the camera app
+        bundle.putInt(ContentResolver.QUERY_ARG_LIMIT, 2);
+
+        ContentResolver contentResolver = this.cordova.getActivity().getContentResolver();
+        try (Cursor cursor = contentResolver.query(contentStore,
+                new String[]{MediaStore.Images.Media._ID, MediaStore.Images.Media.SIZE}, bundle, null)) {
+            // delete the other image if it is the only one added and has the same content, it may
+            // have been saved by another app in the meantime
+            if (cursor != null && cursor.getCount() == 1 && cursor.moveToFirst()) {
+                Uri uri = ContentUris.withAppendedId(contentStore, cursor.getLong(0));
+                if (isSameContent(contentResolver, fileUri, uri, cursor.getLong(1))) {
+                    contentResolver.delete(uri, null, null);
+                }
+            }
+        } catch (Exception e) {
+            LOG.e(LOG_TAG, "Error checking for duplicate image", e);
+        }
     }
 
     /**
-     * Used to find out if we are in a situation where the Camera Intent adds to images
-     * to the content store.
+     * @param size size of the other file from the media store
+     * @return true if both files have the same size and SHA-256
      */
-    private void checkForDuplicateImage() {
-        Uri contentStore = FileHelper.isExternalContentStore() ? MediaStore.Images.Media.EXTERNAL_CONTENT_URI : MediaStore.Images.Media.INTERNAL_CONTENT_URI;
-        Cursor cursor = queryImgDB(contentStore);
-        int currentNumOfImages = cursor.getCount();
-
-        // delete the duplicate file if the difference is 2
-        if ((currentNumOfImages - numPics) == 2) {
-            cursor.moveToLast();
-            int index = cursor.getColumnIndex(MediaStore.Images.Media._ID);
-            if (index >= 0) {
-                int id = cursor.getInt(index) - 1;
-                Uri uri = Uri.parse(contentStore + "/" + id);
-                this.cordova.getActivity().getContentResolver().delete(uri, null, null);
+    private boolean isSameContent(ContentResolver contentResolver, Uri uri, Uri other, long size) throws IOException {
+        try (ParcelFileDescriptor parcelFileDescriptor = contentResolver.openFileDescriptor(uri, "r")) {
+            if (parcelFileDescriptor == null || parcelFileDescriptor.getStatSize() != size) {
+                return false;
             }
         }
-        cursor.close();
+        Context context = cordova.getContext();
+        return HashIndex.sha256(context, uri).equals(HashIndex.sha256(context, other));
     }
+
     private void executeRequest(Request req) {
         switch (req.action) {
             case CAPTURE_AUDIO:
@@ -709,6 +1066,14 @@ public class Capture extends CordovaPlugin {
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        pipeline.shutdown();
+        segmentExecutor.shutdown();
+        warmStart.clear();
+    }
+
     public Bundle onSaveInstanceState() {
         return pendingRequests.toBundle();
     }
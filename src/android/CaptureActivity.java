@@ -3,12 +3,15 @@ package org.apache.cordova.mediacapture;
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.PointF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.CountDownTimer;
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.view.MenuItem;
 import android.view.View;
@@ -16,6 +19,7 @@ import android.view.WindowManager;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.FrameLayout;
+import android.widget.ImageView;
 import android.widget.MediaController;
 import android.widget.Toast;
 import android.widget.VideoView;
@@ -41,22 +45,92 @@ import com.otaliastudios.cameraview.controls.Facing;
 import com.otaliastudios.cameraview.controls.Flash;
 import com.otaliastudios.cameraview.controls.Mode;
 import com.otaliastudios.cameraview.controls.PictureFormat;
+import com.otaliastudios.cameraview.filter.NoFilter;
 import com.otaliastudios.cameraview.gesture.Gesture;
 import com.otaliastudios.cameraview.gesture.GestureAction;
+import com.otaliastudios.cameraview.size.Size;
 import com.otaliastudios.cameraview.size.SizeSelector;
 import com.otaliastudios.cameraview.size.SizeSelectors;
 
 import org.apache.cordova.LOG;
 
-import java.io.FileDescriptor;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CaptureActivity extends AppCompatActivity {
 	private final static String TAG = CaptureActivity.class.getSimpleName();
 
+	/**
+	 * result extra, memory in bytes the picture capture allocated at most on top of the baseline
+	 */
+	public final static String EXTRA_PEAK_MEMORY = "org.apache.cordova.mediacapture.extra.PEAK_MEMORY";
+
+	/**
+	 * number of pictures to take back to back without review, values below 2 disable burst mode
+	 */
+	public final static String EXTRA_BURST_COUNT = "org.apache.cordova.mediacapture.extra.BURST_COUNT";
+
+	/**
+	 * result extra, content uris of all pictures saved in burst mode in the order they were taken
+	 */
+	public final static String EXTRA_BURST_URIS = "org.apache.cordova.mediacapture.extra.BURST_URIS";
+
+	/**
+	 * {@link SystemClock#elapsedRealtime()} when the capture was requested
+	 */
+	public final static String EXTRA_START_TIME = "org.apache.cordova.mediacapture.extra.START_TIME";
+
+	/**
+	 * result extra, milliseconds from the capture request to the first preview frame, -1 if unknown
+	 */
+	public final static String EXTRA_TIME_TO_FIRST_FRAME = "org.apache.cordova.mediacapture.extra.TIME_TO_FIRST_FRAME";
+
+	/**
+	 * seconds after which a recording rolls over to the next segment file, 0 = no segments
+	 */
+	public final static String EXTRA_SEGMENT_DURATION = "org.apache.cordova.mediacapture.extra.SEGMENT_DURATION";
+
+	/**
+	 * size in MB after which a recording rolls over to the next segment file, 0 = no segments
+	 */
+	public final static String EXTRA_SEGMENT_SIZE = "org.apache.cordova.mediacapture.extra.SEGMENT_SIZE";
+
+	/**
+	 * result extra, ArrayList of the segment uris of a segmented recording in the order they were
+	 * recorded
+	 */
+	public final static String EXTRA_SEGMENT_URIS = "org.apache.cordova.mediacapture.extra.SEGMENT_URIS";
+
+	/**
+	 * max burst pictures that are taken but not yet saved, the next shot waits for a save to finish
+	 */
+	private final static int MAX_BURST_IN_FLIGHT = 3;
+
+	/**
+	 * receives the finished segments of a segmented recording while it continues
+	 */
+	interface SegmentListener {
+		/**
+		 * called on the main thread once a segment file is complete
+		 */
+		void onSegment(@NonNull Uri uri);
+	}
+
+	/**
+	 * held weakly, the listener belongs to the plugin and must not outlive it
+	 */
+	@Nullable
+	private static WeakReference<SegmentListener> sSegmentListener;
+
 	//Views
 	private CameraView mCameraView;
 	private FrameLayout mCameraPreviewLayout;
@@ -101,16 +175,89 @@ public class CaptureActivity extends AppCompatActivity {
 	 */
 	private int mQuality = 1;
 
+	/**
+	 * max resolution, bitrates, frame rate and codec of recordings
+	 */
+	private VideoProfile mVideoProfile;
+
 	/**
 	 * keeps track where the cam is facing
 	 */
 	private boolean mCamFacingBack = false;
 
+	/**
+	 * rotation in degrees applied to the picture preview by the image view matrix
+	 */
+	private int mPreviewRotation = 0;
+
+	/**
+	 * memory in use when the current picture capture was started, in bytes
+	 */
+	private long mMemoryBaseline = 0;
+
+	/**
+	 * highest memory usage seen during the current picture capture, in bytes
+	 */
+	private final AtomicLong mPeakMemory = new AtomicLong();
+
+	/**
+	 * output format, quality and max dimensions of pictures
+	 */
+	private ImageEncoding mImageEncoding;
+
+	/**
+	 * preview bitmaps of previous captures, reused for decoding the next preview
+	 */
+	private BitmapPool mBitmapPool;
+
 	/**
 	 * target file uri
 	 */
 	private Uri mSaveFileUri;
 
+	/**
+	 * pictures to take in burst mode, 0 = single picture with review
+	 */
+	private int mBurstCount = 0;
+
+	/**
+	 * saved burst pictures by shot index, null while the burst isn't running or if a save failed
+	 */
+	private Uri[] mBurstUris;
+
+	/**
+	 * burst pictures taken, being saved and done saving
+	 */
+	private int mBurstTaken = 0;
+	private int mBurstInFlight = 0;
+	private int mBurstDone = 0;
+
+	/**
+	 * burst was stopped by the user, pending saves are finished and returned
+	 */
+	private boolean mBurstStopped = false;
+
+	/**
+	 * segment limits of the recording in seconds and MB, both 0 records a single file
+	 */
+	private int mSegmentDuration = 0;
+	private int mSegmentSize = 0;
+
+	/**
+	 * finished segments of the running recording
+	 */
+	private final ArrayList<Uri> mSegmentUris = new ArrayList<>();
+
+	/**
+	 * the user or the duration limit stopped the recording, segments don't roll over any more
+	 */
+	private boolean mStopRequested = false;
+
+	/**
+	 * file the running recording is written to
+	 */
+	private ParcelFileDescriptor mVideoFile;
+
 	/**
 	 * used to display reconding duration
 	 */
@@ -122,14 +269,22 @@ public class CaptureActivity extends AppCompatActivity {
 	private boolean mWasCanceled = false;
 
 	/**
-	 * fail counter, used to remove failed resolutions from capture sizes
+	 * elapsed realtime when the capture was requested and the time it took until the first
+	 * preview frame was drawn, -1 until then
+	 */
+	private long mStartTime;
+	private long mTimeToFirstFrame = -1;
+
+	/**
+	 * resolutions known to work and to fail on this device
 	 */
-	private int mDidFail = -1;
+	private ResolutionCache mResolutionCache;
 
 	/**
-	 * A {@link Handler} for running tasks in the background.
+	 * size that failed last, the next size down is tried after it. null until a failure.
 	 */
-	private Handler mBackgroundHandler;
+	private Size mFailedSize;
+
 	private final CameraListener mCameraListener = new CameraListener() {
 		@Override
 		public void onCameraOpened(@NonNull CameraOptions options) {
@@ -160,6 +315,10 @@ public class CaptureActivity extends AppCompatActivity {
 			} else {
 				mCaptureButton.setImageResource(R.getDrawable(CaptureActivity.this, "mediacap_record"));
 			}
+
+			//continue a burst interrupted by pause
+			if (isBursting())
+				takeBurstPicture();
 		}
 
 		@Override
@@ -170,7 +329,11 @@ public class CaptureActivity extends AppCompatActivity {
 		@Override
 		public void onCameraError(@NonNull CameraException exception) {
 			LOG.v(TAG, "onCameraError", exception);
-			mDidFail++;
+			Size size = mIsVideo ? mCameraView.getVideoSize() : mCameraView.getPictureSize();
+			if (size != null && isResolutionError(exception)) {
+				mResolutionCache.markBad(getResolutionKey(), size);
+				mFailedSize = size;
+			}
 
 			//will cause the resolution selector to be called again
 			mCameraView.close();
@@ -179,6 +342,11 @@ public class CaptureActivity extends AppCompatActivity {
 			//restart capturer until no valid resolutions are left to be tried
 			if (mCameraView.getMode() == Mode.VIDEO) {
 				captureVideo();
+			} else if (isBursting()) {
+				if (mBurstStopped && mBurstInFlight == 0)
+					finishBurst();
+				else
+					takeBurstPicture();
 			} else {
 				capturePhoto();
 			}
@@ -187,52 +355,29 @@ public class CaptureActivity extends AppCompatActivity {
 		@Override
 		public void onPictureTaken(@NonNull PictureResult result) {
 			LOG.v(TAG, "onPictureTaken - size %s", result.getSize());
+			markResolutionGood();
+
+			if (isBursting()) {
+				onBurstPictureTaken(result);
+				return;
+			}
 
 			setLoadingIndicator(true);
 			mCameraView.close();
+			sampleMemory();
+
+			//work on the camera jpeg, it is either written as is or decoded at the target size only.
+			//previews of pictures written as is still need the camera rotation
+			if (result.getFormat() == PictureFormat.JPEG && result.getData() != null) {
+				submit(new ImageSaver(CaptureActivity.this, result.getData(), result.getRotation(),
+						mSaveFileUri, mImageEncoding, mCameraPreviewLayout.getWidth(), mCameraPreviewLayout.getHeight(),
+						mBitmapPool, new PictureSavedCallback(mImageEncoding.keepsCameraJpeg() ? result.getRotation() : 0)));
+				return;
+			}
+
 			result.toBitmap(new BitmapCallback() {
 				@Override
 				public void onBitmapReady(@Nullable Bitmap bitmap) {
-					ImageSaver.Callback callback = new ImageSaver.Callback() {
-						@Override
-						public void onSuccess(@NonNull final Bitmap bitmap) {
-							runOnUiThread(() -> {
-
-								mCameraPreviewLayout.setVisibility(View.GONE);
-								mPicturePreviewLayout.setVisibility(View.VISIBLE);
-
-
-								mCapturedImageView.setImageBitmap(bitmap);
-
-								mPictureRotateRightButton.setOnClickListener(v -> {
-									setLoadingIndicator(true);
-									mBackgroundHandler.post(
-											new ImageSaver(CaptureActivity.this, bitmap, mSaveFileUri, 90f, this)
-									);
-								});
-								mPictureRotateLeftButton.setOnClickListener(v -> {
-									setLoadingIndicator(true);
-									mBackgroundHandler.post(
-											new ImageSaver(CaptureActivity.this, bitmap, mSaveFileUri, -90f, this)
-									);
-								});
-								setLoadingIndicator(false);
-							});
-						}
-
-						@Override
-						public void onFailure(Throwable t) {
-							runOnUiThread(() -> {
-
-								setLoadingIndicator(false);
-								LOG.e(TAG, "Failed saving image", t);
-								Helper.showErrorDialog(String.format("%s\n%s",
-										R.localize(CaptureActivity.this, "mediacap_error_save_image"),
-										t.getLocalizedMessage()), CaptureActivity.this);
-							});
-						}
-					};
-
 					if (bitmap == null) {
 						LOG.e(TAG, "bitmap null");
 						Helper.showErrorDialog(
@@ -242,8 +387,7 @@ public class CaptureActivity extends AppCompatActivity {
 						return;
 					}
 
-					mBackgroundHandler.post(
-							new ImageSaver(CaptureActivity.this, bitmap, mSaveFileUri, callback));
+					submit(new ImageSaver(CaptureActivity.this, bitmap, mSaveFileUri, mImageEncoding, new PictureSavedCallback(0)));
 				}
 			});
 		}
@@ -251,6 +395,12 @@ public class CaptureActivity extends AppCompatActivity {
 		@Override
 		public void onVideoTaken(@NonNull VideoResult result) {
 			LOG.v(TAG, "onVideoTaken size: %s", result.getSize());
+			closeVideoFile();
+
+			if (isSegmented()) {
+				onSegmentTaken(result);
+				return;
+			}
 
 			if (mDurationTimer != null) {
 				mDurationTimer.cancel();
@@ -304,6 +454,13 @@ public class CaptureActivity extends AppCompatActivity {
 		public void onVideoRecordingStart() {
 			setLoadingIndicator(false);
 			LOG.d(TAG, "onVideoRecordingStart");
+			markResolutionGood();
+			//the next segment of a running recording, timer and views are still running
+			if (isSegmented() && !mSegmentUris.isEmpty())
+				return;
+
+			if (mDurationTimer != null)
+				mDurationTimer.cancel();
 			Helper.lockOrientation(CaptureActivity.this);
 			mCaptureButton.setImageResource(
 					R.getDrawable(CaptureActivity.this, "mediacap_stop"));
@@ -338,6 +495,9 @@ public class CaptureActivity extends AppCompatActivity {
 		public void onVideoRecordingEnd() {
 			//is called, even if the capturer crashes
 			LOG.d(TAG, "onVideoRecordingEnd");
+			//rolls over to the next segment, finishSegments() cleans up
+			if (isSegmented() && !mStopRequested)
+				return;
 
 			Helper.unlockOrientation(CaptureActivity.this);
 			updateDurationView(0);
@@ -353,10 +513,6 @@ public class CaptureActivity extends AppCompatActivity {
 			LOG.d(TAG, "onPictureShutter");
 		}
 	};
-	/**
-	 * An additional thread for running tasks that shouldn't block the UI.
-	 */
-	private HandlerThread mBackgroundThread;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -365,6 +521,8 @@ public class CaptureActivity extends AppCompatActivity {
 		getWindow().setFlags(WindowManager.LayoutParams.FLAG_HARDWARE_ACCELERATED,
 				WindowManager.LayoutParams.FLAG_HARDWARE_ACCELERATED);
 		setContentView(R.getLayout(this, "mediacap_layout"));
+		mBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+		mResolutionCache = new ResolutionCache(this);
 
 		Intent intent = getIntent();
 
@@ -377,10 +535,13 @@ public class CaptureActivity extends AppCompatActivity {
 			//Intent contain MediaStore.EXTRA_OUTPUT which tells us that the picture have to be saved in MediaStore using ContentResolver
 			mSaveFileUri = (Uri) intent.getExtras().get(MediaStore.EXTRA_OUTPUT);
 		}
+		mStartTime = intent.getLongExtra(EXTRA_START_TIME, SystemClock.elapsedRealtime());
 
 		switch (intent.getAction()) {
 			case MediaStore.ACTION_IMAGE_CAPTURE:
 				mIsVideo = false;
+				mImageEncoding = ImageEncoding.fromExtras(intent);
+				mBurstCount = intent.getIntExtra(EXTRA_BURST_COUNT, 0);
 				break;
 			case MediaStore.ACTION_VIDEO_CAPTURE:
 				mIsVideo = true;
@@ -390,6 +551,9 @@ public class CaptureActivity extends AppCompatActivity {
 				}
 
 				mQuality = intent.getIntExtra(MediaStore.EXTRA_VIDEO_QUALITY, mQuality);
+				mVideoProfile = VideoProfile.fromExtras(intent);
+				mSegmentDuration = intent.getIntExtra(EXTRA_SEGMENT_DURATION, 0);
+				mSegmentSize = intent.getIntExtra(EXTRA_SEGMENT_SIZE, 0);
 				break;
 			default:
 				return;
@@ -397,7 +561,8 @@ public class CaptureActivity extends AppCompatActivity {
 
 		try {
 			if (mSaveFileUri == null) {
-				mSaveFileUri = FileHelper.getAndCreateFile(intent.getAction(), this);
+				mSaveFileUri = FileHelper.getAndCreateFile(intent.getAction(), this,
+						mIsVideo ? null : mImageEncoding.format.mimeType);
 			}
 		} catch (IllegalArgumentException e) {
 			LOG.e(TAG, "error creating data uri", e);
@@ -417,7 +582,6 @@ public class CaptureActivity extends AppCompatActivity {
 	@Override
 	protected void onResume() {
 		super.onResume();
-		startBackgroundThread();
 
 		mCameraView.open();
 	}
@@ -425,8 +589,8 @@ public class CaptureActivity extends AppCompatActivity {
 	@Override
 	protected void onPause() {
 		super.onPause();
+		//pending saves keep running on the capture executor, pausing must not wait for them
 		stopCaptureVideo(false);
-		stopBackgroundThread();
 
 		mCameraView.close();
 	}
@@ -436,12 +600,16 @@ public class CaptureActivity extends AppCompatActivity {
 	protected void onDestroy() {
 		super.onDestroy();
 		mCameraView.destroy();
+		closeVideoFile();
+		mBitmapPool.clear();
 	}
 
 	@Override
 	public void onBackPressed() {
 		if (mCameraView.isTakingVideo()) {
 			stopCaptureVideo(true);
+		} else if (isBursting()) {
+			stopBurst();
 		} else {
 			super.onBackPressed();
 		}
@@ -516,29 +684,49 @@ public class CaptureActivity extends AppCompatActivity {
 		mCaptureButton.setOnClickListener(v -> {
 			if (mCameraView.getMode() == Mode.VIDEO) {
 				mSwitchCameraButton.setVisibility(View.GONE);
-				if (!mCameraView.isTakingVideo())
+				if (!mCameraView.isTakingVideo()) {
+					mStopRequested = false;
 					captureVideo();
-				else
+				} else
 					stopCaptureVideo(false);
+			} else if (mBurstCount > 1) {
+				startBurst();
 			} else {
 				capturePhoto();
 			}
 		});
 
+		mPictureRotateRightButton.setOnClickListener(v -> rotatePicture(90));
+		mPictureRotateLeftButton.setOnClickListener(v -> rotatePicture(-90));
+		mCapturedImageView.addOnLayoutChangeListener(
+				(v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> updatePreviewMatrix());
+
 		mSwitchCameraButton.setOnClickListener(v -> {
 			mCamFacingBack = !mCamFacingBack;
+			//another camera, its sizes start over
+			mFailedSize = null;
 			mCameraView.setFacing(mCamFacingBack ? Facing.FRONT : Facing.BACK);
 		});
 
 		pictureAcceptButton.setOnClickListener(v -> {
 			// note, we reference the string directly rather than via Camera.ACTION_NEW_PICTURE,
 			// as the latter class is now deprecated - but we still need to broadcast the string for other apps
-			sendBroadcast(new Intent("android.hardware.action.NEW_PICTURE", mSaveFileUri));
-			// for compatibility with some apps - apparently this is what used to be broadcast on Android?
-			sendBroadcast(new Intent("com.android.camera.NEW_PICTURE", mSaveFileUri));
+			// files of the app are not announced, scratch files once they are published to the media store
+			if (FileHelper.isContentUri(mSaveFileUri)) {
+				sendBroadcast(new Intent("android.hardware.action.NEW_PICTURE", mSaveFileUri));
+				// for compatibility with some apps - apparently this is what used to be broadcast on Android?
+				sendBroadcast(new Intent("com.android.camera.NEW_PICTURE", mSaveFileUri));
+			}
+
+			long peakMemory = Math.max(0, mPeakMemory.get() - mMemoryBaseline);
+			LOG.d(TAG, "peak memory of capture: %d bytes", peakMemory);
 
 			Intent resultIntent = new Intent();
 			resultIntent.setData(mSaveFileUri);
+			// the result stays in the app, file uris must not fail the file uri exposure check
+			resultIntent.setPackage(getPackageName());
+			resultIntent.putExtra(EXTRA_PEAK_MEMORY, peakMemory);
+			resultIntent.putExtra(EXTRA_TIME_TO_FIRST_FRAME, mTimeToFirstFrame);
 			setResult(Activity.RESULT_OK, resultIntent);
 			finish();
 		});
@@ -547,13 +735,15 @@ public class CaptureActivity extends AppCompatActivity {
 			mPicturePreviewLayout.setVisibility(View.GONE);
 			mCameraPreviewLayout.setVisibility(View.VISIBLE);
 
-			mCapturedImageView.setImageDrawable(null);
+			releasePreviewBitmap();
 			mCameraView.open();
 		});
 
 		videoAcceptButton.setOnClickListener(v -> {
 			Intent resultIntent = new Intent();
 			resultIntent.setData(mSaveFileUri);
+			resultIntent.setPackage(getPackageName());
+			resultIntent.putExtra(EXTRA_TIME_TO_FIRST_FRAME, mTimeToFirstFrame);
 			setResult(Activity.RESULT_OK, resultIntent);
 			finish();
 		});
@@ -566,7 +756,7 @@ public class CaptureActivity extends AppCompatActivity {
 			mSwitchCameraButton.setVisibility(View.VISIBLE);
 			if (mSaveFileUri != null) {
 				try {
-					getContentResolver().delete(mSaveFileUri, null, null);
+					FileHelper.deleteFile(this, mSaveFileUri);
 				} catch (Exception e) {
 					LOG.w("error removing file before closing", e);
 				}
@@ -627,6 +817,10 @@ public class CaptureActivity extends AppCompatActivity {
 		mCameraView = findViewById(R.getId(this, "cameraview"));
 		mCameraView.setLifecycleOwner(this);
 		mCameraView.addCameraListener(mCameraListener);
+		//draws the preview unchanged, it only reports when the first frame is drawn
+		FirstFrameFilter firstFrameFilter = new FirstFrameFilter();
+		firstFrameFilter.setListener(time -> runOnUiThread(() -> onFirstFrame(time)));
+		mCameraView.setFilter(firstFrameFilter);
 		//mCameraView.setVideoMaxDuration(mDuration * 1000);
 
 		mCameraView.mapGesture(Gesture.PINCH, GestureAction.ZOOM); // Pinch to zoom!
@@ -634,7 +828,13 @@ public class CaptureActivity extends AppCompatActivity {
 
 		if (mIsVideo) {
 			mCameraView.setMode(Mode.VIDEO);
+			mVideoProfile.apply(mCameraView);
 			mCameraView.setVideoSize(getSize());
+			//the recording stops at the limits and onVideoTaken starts the next segment
+			if (mSegmentDuration > 0)
+				mCameraView.setVideoMaxDuration(mSegmentDuration * 1000);
+			if (mSegmentSize > 0)
+				mCameraView.setVideoMaxSize(mSegmentSize * 1024L * 1024L);
 		} else {
 			mCameraView.setMode(Mode.PICTURE);
 			mCameraView.setPictureFormat(PictureFormat.JPEG);
@@ -645,9 +845,182 @@ public class CaptureActivity extends AppCompatActivity {
 
 	private void capturePhoto() {
 		LOG.d(TAG, "Capturing picture...");
+		mMemoryBaseline = Helper.getUsedMemory();
+		mPeakMemory.set(mMemoryBaseline);
+		mCameraView.takePicture();
+	}
+
+	/**
+	 * starts taking {@link #mBurstCount} pictures back to back. Pictures are saved on the capture
+	 * executor while the next one is taken, there is no review.
+	 */
+	private void startBurst() {
+		if (isBursting())
+			return;
+
+		LOG.d(TAG, "Capturing burst of %d pictures...", mBurstCount);
+		mMemoryBaseline = Helper.getUsedMemory();
+		mPeakMemory.set(mMemoryBaseline);
+		mBurstUris = new Uri[mBurstCount];
+		mBurstTaken = 0;
+		mBurstInFlight = 0;
+		mBurstDone = 0;
+		mBurstStopped = false;
+
+		mCaptureButton.setEnabled(false);
+		mSwitchCameraButton.setVisibility(View.GONE);
+		mRecordStats.setVisibility(View.VISIBLE);
+		updateBurstProgress();
+		takeBurstPicture();
+	}
+
+	private boolean isBursting() {
+		return mBurstUris != null;
+	}
+
+	/**
+	 * takes the next burst picture unless all are taken or too many are still being saved
+	 */
+	private void takeBurstPicture() {
+		if (mBurstStopped || mBurstTaken >= mBurstCount || mBurstInFlight >= MAX_BURST_IN_FLIGHT
+				|| mCameraView.isTakingPicture() || !mCameraView.isOpened())
+			return;
 		mCameraView.takePicture();
 	}
 
+	/**
+	 * creates the file of a further burst picture where the first one is stored, a file next to
+	 * it if the capture doesn't go to the media store. Runs on the capture executor.
+	 */
+	private Uri createBurstFile() throws IOException {
+		return FileHelper.isContentUri(mSaveFileUri)
+				? FileHelper.getAndCreateFile(MediaStore.ACTION_IMAGE_CAPTURE, this, mImageEncoding.format.mimeType)
+				: FileHelper.createFile(new File(mSaveFileUri.getPath()).getParentFile(),
+				MediaStore.ACTION_IMAGE_CAPTURE, mImageEncoding.format.mimeType);
+	}
+
+	/**
+	 * saves a burst picture to its own media store entry and triggers the next shot right away
+	 */
+	private void onBurstPictureTaken(@NonNull PictureResult result) {
+		int index = mBurstTaken++;
+		sampleMemory();
+		updateBurstProgress();
+
+		mBurstInFlight++;
+		BurstSavedCallback callback = new BurstSavedCallback(index);
+		if (result.getFormat() == PictureFormat.JPEG && result.getData() != null) {
+			saveBurstPicture(index, callback, uri -> new ImageSaver(this, result.getData(), result.getRotation(),
+					uri, mImageEncoding, 0, 0, null, callback));
+		} else {
+			result.toBitmap(bitmap -> {
+				if (bitmap == null) {
+					callback.onFailure(new IllegalStateException("bitmap null"));
+					return;
+				}
+				saveBurstPicture(index, callback, uri -> new ImageSaver(this, bitmap, uri, mImageEncoding, callback));
+			});
+		}
+
+		takeBurstPicture();
+	}
+
+	private interface BurstSaverFactory {
+		@NonNull
+		ImageSaver create(@NonNull Uri uri);
+	}
+
+	/**
+	 * creates the file of the burst picture and saves it on the capture executor, the media
+	 * store insert doesn't block the main thread
+	 */
+	private void saveBurstPicture(int index, @NonNull BurstSavedCallback callback, @NonNull BurstSaverFactory factory) {
+		Runnable task = () -> {
+			Uri uri;
+			try {
+				uri = index == 0 ? mSaveFileUri : createBurstFile();
+			} catch (IllegalArgumentException | IOException e) {
+				uri = null;
+			}
+			if (uri == null) {
+				callback.onFailure(new IllegalStateException("error creating data uri"));
+				return;
+			}
+			callback.setUri(uri);
+			factory.create(uri).run();
+		};
+
+		try {
+			CaptureExecutor.getInstance().submit(task);
+		} catch (RejectedExecutionException e) {
+			callback.onFailure(e);
+		}
+	}
+
+	/**
+	 * stops taking burst pictures, the ones already taken are still saved and returned
+	 */
+	private void stopBurst() {
+		mBurstStopped = true;
+		setLoadingIndicator(true);
+		if (mBurstInFlight == 0 && !mCameraView.isTakingPicture())
+			finishBurst();
+	}
+
+	private void onBurstSaveDone() {
+		mBurstInFlight--;
+		mBurstDone++;
+		if (isDestroyed() || isFinishing())
+			return;
+
+		if (mBurstDone >= (mBurstStopped ? mBurstTaken : mBurstCount)) {
+			finishBurst();
+		} else {
+			takeBurstPicture();
+		}
+	}
+
+	/**
+	 * returns all saved burst pictures in a single result
+	 */
+	private void finishBurst() {
+		mCameraView.close();
+
+		ArrayList<Uri> uris = new ArrayList<>();
+		for (Uri uri : mBurstUris) {
+			if (uri != null)
+				uris.add(uri);
+		}
+		mBurstUris = null;
+
+		if (uris.isEmpty()) {
+			setResult(Activity.RESULT_CANCELED, new Intent());
+			finish();
+			return;
+		}
+
+		long peakMemory = Math.max(0, mPeakMemory.get() - mMemoryBaseline);
+		LOG.d(TAG, "peak memory of burst: %d bytes", peakMemory);
+
+		for (Uri uri : uris) {
+			if (FileHelper.isContentUri(uri))
+				sendBroadcast(new Intent("android.hardware.action.NEW_PICTURE", uri));
+		}
+
+		Intent resultIntent = new Intent();
+		resultIntent.setData(uris.get(0));
+		resultIntent.setPackage(getPackageName());
+		resultIntent.putParcelableArrayListExtra(EXTRA_BURST_URIS, uris);
+		resultIntent.putExtra(EXTRA_PEAK_MEMORY, peakMemory);
+		resultIntent.putExtra(EXTRA_TIME_TO_FIRST_FRAME, mTimeToFirstFrame);
+		setResult(Activity.RESULT_OK, resultIntent);
+		finish();
+	}
+
+	private void updateBurstProgress() {
+		mRecordingDurationView.setText(String.format(Locale.getDefault(), "%d / %d", mBurstTaken, mBurstCount));
+	}
+
 	private void captureVideo() {
 		if (mCameraView.getMode() != Mode.VIDEO || mCameraView.isTakingVideo()) {
 			LOG.d(TAG, "Can't record video while session type is 'picture' or recording.");
@@ -655,8 +1028,9 @@ public class CaptureActivity extends AppCompatActivity {
 		}
 
 		try {
-			FileDescriptor videoFileDescriptor = getContentResolver().openFileDescriptor(mSaveFileUri, "rw").getFileDescriptor();
-			mCameraView.takeVideo(videoFileDescriptor);
+			closeVideoFile();
+			mVideoFile = getContentResolver().openFileDescriptor(mSaveFileUri, "rw");
+			mCameraView.takeVideo(mVideoFile.getFileDescriptor());
 		} catch (FileNotFoundException e) {
 			Helper.showErrorDialog(R.localize(this, "mediacap_error_file"), this);
 		}
@@ -678,8 +1052,110 @@ public class CaptureActivity extends AppCompatActivity {
 		});
 	}
 
+	/**
+	 * @param time elapsed realtime the first preview frame was drawn at
+	 */
+	private void onFirstFrame(long time) {
+		if (mTimeToFirstFrame >= 0)
+			return;
+		mTimeToFirstFrame = time - mStartTime;
+		LOG.d(TAG, "time to first frame: %d ms", mTimeToFirstFrame);
+	}
+
+	private void closeVideoFile() {
+		if (mVideoFile == null)
+			return;
+		try {
+			mVideoFile.close();
+		} catch (IOException e) {
+			LOG.w(TAG, "error closing video file", e);
+		}
+		mVideoFile = null;
+	}
+
+	private boolean isSegmented() {
+		return mSegmentDuration > 0 || mSegmentSize > 0;
+	}
+
+	/**
+	 * sets the listener for the finished segments of segmented recordings, null removes it. The
+	 * caller keeps a reference to it, only a weak one is held here.
+	 */
+	static void setSegmentListener(@Nullable SegmentListener listener) {
+		sSegmentListener = listener != null ? new WeakReference<>(listener) : null;
+	}
+
+	/**
+	 * hands a finished segment to the listener and rolls over to the next file, unless the
+	 * recording was stopped. There is no review, the segments are already in use.
+	 */
+	private void onSegmentTaken(@NonNull VideoResult result) {
+		if (mWasCanceled) {
+			//segments handed out before are kept
+			deleteRecording();
+			finishSegments();
+			return;
+		}
+
+		mSegmentUris.add(mSaveFileUri);
+		SegmentListener listener = sSegmentListener != null ? sSegmentListener.get() : null;
+		if (listener != null)
+			listener.onSegment(mSaveFileUri);
+
+		boolean limitReached = result.getTerminationReason() == VideoResult.REASON_MAX_DURATION_REACHED
+				|| result.getTerminationReason() == VideoResult.REASON_MAX_SIZE_REACHED;
+		if (mStopRequested || !limitReached) {
+			finishSegments();
+			return;
+		}
+
+		try {
+			mSaveFileUri = createSegmentFile();
+		} catch (IllegalArgumentException | IOException e) {
+			LOG.e(TAG, "error creating segment file", e);
+			finishSegments();
+			return;
+		}
+		LOG.d(TAG, "rolling over to segment %d", mSegmentUris.size() + 1);
+		captureVideo();
+	}
+
+	/**
+	 * creates the file of the next segment where the first one is stored, a file next to it if
+	 * the capture doesn't go to the media store
+	 */
+	private Uri createSegmentFile() throws IOException {
+		return FileHelper.isContentUri(mSaveFileUri)
+				? FileHelper.getAndCreateFile(MediaStore.ACTION_VIDEO_CAPTURE, this)
+				: FileHelper.createFile(new File(mSaveFileUri.getPath()).getParentFile(),
+				MediaStore.ACTION_VIDEO_CAPTURE, null);
+	}
+
+	/**
+	 * ends a segmented recording. All segments are returned with the result as well, a plugin that
+	 * was restored after its process died never received them through the listener.
+	 */
+	private void finishSegments() {
+		if (mDurationTimer != null)
+			mDurationTimer.cancel();
+		mCameraView.close();
+		Helper.unlockOrientation(this);
+
+		if (mSegmentUris.isEmpty()) {
+			setResult(Activity.RESULT_CANCELED, new Intent());
+		} else {
+			Intent resultIntent = new Intent();
+			resultIntent.setData(mSegmentUris.get(0));
+			resultIntent.putParcelableArrayListExtra(EXTRA_SEGMENT_URIS, new ArrayList<>(mSegmentUris));
+			resultIntent.setPackage(getPackageName());
+			setResult(Activity.RESULT_OK, resultIntent);
+		}
+		finish();
+	}
+
 	private void stopCaptureVideo(boolean wasCanceled) {
 		mWasCanceled = wasCanceled;
+		mStopRequested = true;
 		if (mCameraView.isTakingVideo()) {
 			setLoadingIndicator(true);
 			mCameraView.stopVideo();
@@ -689,7 +1165,7 @@ public class CaptureActivity extends AppCompatActivity {
 	private void deleteRecording() {
 		if (mSaveFileUri != null) {
 			try {
-				getContentResolver().delete(mSaveFileUri, null, null);
+				FileHelper.deleteFile(this, mSaveFileUri);
 			} catch (Exception e) {
 				LOG.w("error removing file before closing", e);
 			}
@@ -697,25 +1173,59 @@ public class CaptureActivity extends AppCompatActivity {
 	}
 
 	/**
-	 * sorts available resolutions depending on selected quality level
+	 * @return true if the error may be caused by the capture size
+	 */
+	private static boolean isResolutionError(@NonNull CameraException exception) {
+		switch (exception.getReason()) {
+			case CameraException.REASON_FAILED_TO_START_PREVIEW:
+			case CameraException.REASON_PICTURE_FAILED:
+			case CameraException.REASON_VIDEO_FAILED:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private String getResolutionKey() {
+		return ResolutionCache.getKey(this, mCameraView.getFacing(), mIsVideo);
+	}
+
+	/**
+	 * remembers the size of the running capture as working on this device
+	 */
+	private void markResolutionGood() {
+		Size size = mIsVideo ? mCameraView.getVideoSize() : mCameraView.getPictureSize();
+		if (size != null)
+			mResolutionCache.markGood(getResolutionKey(), size);
+	}
+
+	/**
+	 * sorts available resolutions depending on selected quality level, videos are limited to the
+	 * max resolution of the profile. The last size that worked on the device comes first and sizes
+	 * known to fail are skipped, after an error the next size down is tried.
 	 *
 	 * @return sorted size array depending on quality
 	 */
 	private SizeSelector getSize() {
 		return source -> {
 			//sort smallest to highest res
-			source.sort(Comparator.comparingInt(o -> (o.getWidth() * o.getWidth())));
-
-			//remove resolutions that might have failed
-			if (mDidFail >= 0) {
-				if (mQuality == 0) {
-					source = source.subList(mDidFail + 1, source.size());
-				} else {
-					source = source.subList(0, source.size() - 1 - mDidFail);
+			source.sort(Comparator.comparingInt(o -> (o.getWidth() * o.getHeight())));
+
+			if (mIsVideo && mVideoProfile.maxResolution > 0 && !source.isEmpty()) {
+				List<Size> fitting = new ArrayList<>();
+				for (Size size : source) {
+					if (mVideoProfile.fits(size))
+						fitting.add(size);
 				}
+				//nothing fits, the smallest one comes closest
+				source = fitting.isEmpty() ? new ArrayList<>(source.subList(0, 1)) : fitting;
 			}
+
 			if (mQuality == 1)
 				source.sort(Comparator.reverseOrder());
+
+			//the last working size first, failed sizes are skipped
+			source = mResolutionCache.select(getResolutionKey(), source, mFailedSize);
 			if (source.isEmpty()) {
 				Helper.showErrorDialog(R.localize(this, "mediacap_error_starting_camera"), this);
 			}
@@ -725,32 +1235,226 @@ public class CaptureActivity extends AppCompatActivity {
 	}
 
 
-	private void setLoadingIndicator(boolean visible) {
-		if (mProgressIndicator != null) {
-			mProgressIndicator.setVisibility(visible ? View.VISIBLE : View.GONE);
+	/**
+	 * pass-through filter of the GL preview that reports the first frame it draws. Public with a
+	 * default constructor, CameraView copies filters by reflection.
+	 */
+	public static class FirstFrameFilter extends NoFilter {
+		interface Listener {
+			void onFirstFrame(long time);
+		}
+
+		private volatile Listener mListener;
+
+		void setListener(@Nullable Listener listener) {
+			mListener = listener;
+		}
+
+		@Override
+		public void draw(long timestampUs, @NonNull float[] transformMatrix) {
+			super.draw(timestampUs, transformMatrix);
+			Listener listener = mListener;
+			if (listener != null) {
+				mListener = null;
+				listener.onFirstFrame(SystemClock.elapsedRealtime());
+			}
+		}
+	}
+
+	/**
+	 * shows the saved picture for review
+	 */
+	private class PictureSavedCallback implements ImageSaver.Callback {
+		/**
+		 * rotation needed to display the saved bitmap upright
+		 */
+		private final int mRotation;
+
+		PictureSavedCallback(int rotation) {
+			this.mRotation = rotation;
+		}
+
+		@Override
+		public void onSuccess(@Nullable Bitmap bitmap) {
+			sampleMemory();
+			runOnUiThread(() -> {
+				if (isDestroyed())
+					return;
+
+				mCameraPreviewLayout.setVisibility(View.GONE);
+				mPicturePreviewLayout.setVisibility(View.VISIBLE);
+
+				mPreviewRotation = mRotation;
+				mCapturedImageView.setImageBitmap(bitmap);
+				updatePreviewMatrix();
+
+				setLoadingIndicator(false);
+			});
+		}
+
+		@Override
+		public void onFailure(Throwable t) {
+			onSaveFailed(t);
+		}
+	}
+
+	/**
+	 * collects a saved burst picture, failed pictures are removed from the media store
+	 */
+	private class BurstSavedCallback implements ImageSaver.Callback {
+		private final int mIndex;
+		/**
+		 * set on the capture executor once the file is created, null until then
+		 */
+		@Nullable
+		private volatile Uri mUri;
+
+		BurstSavedCallback(int index) {
+			this.mIndex = index;
+		}
+
+		void setUri(@NonNull Uri uri) {
+			this.mUri = uri;
+		}
+
+		@Override
+		public void onSuccess(@Nullable Bitmap bitmap) {
+			//there is no review, the bitmap of re-encoded pictures isn't needed
+			if (bitmap != null)
+				bitmap.recycle();
+			sampleMemory();
+			runOnUiThread(() -> {
+				if (mBurstUris != null)
+					mBurstUris[mIndex] = mUri;
+				onBurstSaveDone();
+			});
+		}
+
+		@Override
+		public void onFailure(Throwable t) {
+			LOG.e(TAG, "Failed saving burst picture " + mIndex, t);
+			if (mUri != null) {
+				try {
+					FileHelper.deleteFile(CaptureActivity.this, mUri);
+				} catch (Exception e) {
+					LOG.w(TAG, "error removing failed burst picture", e);
+				}
+			}
+			runOnUiThread(CaptureActivity.this::onBurstSaveDone);
 		}
 	}
 
 	/**
-	 * Starts a background thread and its {@link Handler}.
+	 * rotates the saved picture by changing its exif orientation, the preview is only rotated
+	 * by the image view matrix
+	 *
+	 * @param degrees positive rotates right, negative left
 	 */
-	private void startBackgroundThread() {
-		mBackgroundThread = new HandlerThread("CameraBackground");
-		mBackgroundThread.start();
-		mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+	private void rotatePicture(int degrees) {
+		setLoadingIndicator(true);
+		//the saver reads and writes the orientation of the file, a second one must not run alongside
+		setRotateButtonsEnabled(false);
+		submit(new ImageSaver(this, mSaveFileUri, degrees, mImageEncoding, new ImageSaver.Callback() {
+			@Override
+			public void onSuccess(@Nullable Bitmap bitmap) {
+				runOnUiThread(() -> {
+					if (isDestroyed())
+						return;
+					mPreviewRotation = (mPreviewRotation + degrees + 360) % 360;
+					updatePreviewMatrix();
+					setLoadingIndicator(false);
+					setRotateButtonsEnabled(true);
+				});
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				runOnUiThread(() -> setRotateButtonsEnabled(true));
+				onSaveFailed(t);
+			}
+		}));
+	}
+
+	private void setRotateButtonsEnabled(boolean enabled) {
+		mPictureRotateLeftButton.setEnabled(enabled);
+		mPictureRotateRightButton.setEnabled(enabled);
 	}
 
 	/**
-	 * Stops the background thread and its {@link Handler}.
+	 * runs the saver on the shared capture executor, results are delivered to its callback. A
+	 * saver rejected by the full executor fails through its callback as well, so a burst still
+	 * counts it as done.
 	 */
-	private void stopBackgroundThread() {
-		mBackgroundThread.quitSafely();
+	private void submit(@NonNull ImageSaver saver) {
 		try {
-			mBackgroundThread.join();
-			mBackgroundThread = null;
-			mBackgroundHandler = null;
-		} catch (InterruptedException e) {
-			LOG.e(TAG, "stopping background thread failed", e);
+			CaptureExecutor.getInstance().submit(saver);
+		} catch (RejectedExecutionException e) {
+			saver.getCallback().onFailure(e);
+		}
+	}
+
+	/**
+	 * fits the preview drawable into the image view, rotated by {@link #mPreviewRotation}
+	 */
+	private void updatePreviewMatrix() {
+		Drawable drawable = mCapturedImageView.getDrawable();
+		int viewWidth = mCapturedImageView.getWidth();
+		int viewHeight = mCapturedImageView.getHeight();
+		if (drawable == null || viewWidth == 0 || viewHeight == 0)
+			return;
+
+		float drawableWidth = drawable.getIntrinsicWidth();
+		float drawableHeight = drawable.getIntrinsicHeight();
+		boolean swapped = mPreviewRotation % 180 != 0;
+		float scale = Math.min(
+				viewWidth / (swapped ? drawableHeight : drawableWidth),
+				viewHeight / (swapped ? drawableWidth : drawableHeight));
+
+		Matrix matrix = new Matrix();
+		matrix.postTranslate(-drawableWidth / 2f, -drawableHeight / 2f);
+		matrix.postRotate(mPreviewRotation);
+		matrix.postScale(scale, scale);
+		matrix.postTranslate(viewWidth / 2f, viewHeight / 2f);
+
+		mCapturedImageView.setScaleType(ImageView.ScaleType.MATRIX);
+		mCapturedImageView.setImageMatrix(matrix);
+	}
+
+	private void onSaveFailed(Throwable t) {
+		runOnUiThread(() -> {
+			LOG.e(TAG, "Failed saving image", t);
+			if (isDestroyed())
+				return;
+
+			setLoadingIndicator(false);
+			Helper.showErrorDialog(String.format("%s\n%s",
+					R.localize(CaptureActivity.this, "mediacap_error_save_image"),
+					t.getLocalizedMessage()), CaptureActivity.this);
+		});
+	}
+
+	/**
+	 * removes the picture preview and hands its bitmap back to the pool
+	 */
+	private void releasePreviewBitmap() {
+		Drawable drawable = mCapturedImageView.getDrawable();
+		mCapturedImageView.setImageDrawable(null);
+		if (drawable instanceof BitmapDrawable) {
+			mBitmapPool.put(((BitmapDrawable) drawable).getBitmap());
+		}
+	}
+
+	/**
+	 * records the current memory usage if it is the highest of this capture
+	 */
+	private void sampleMemory() {
+		long used = Helper.getUsedMemory();
+		mPeakMemory.accumulateAndGet(used, Math::max);
+	}
+
+	private void setLoadingIndicator(boolean visible) {
+		if (mProgressIndicator != null) {
+			mProgressIndicator.setVisibility(visible ? View.VISIBLE : View.GONE);
 		}
 	}
 }
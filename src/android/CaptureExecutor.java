@@ -0,0 +1,77 @@
+package org.apache.cordova.mediacapture;
+
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived executor for saving and processing captures. It is shared by all capture activities
+ * and outlives them, so pending saves finish even if the activity is paused or destroyed.
+ * Idle threads are released after {@link #KEEP_ALIVE_SECONDS}.
+ */
+class CaptureExecutor {
+	private static final int THREADS = 2;
+	/**
+	 * max tasks waiting for a thread, further submits are rejected
+	 */
+	private static final int QUEUE_CAPACITY = 16;
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private static CaptureExecutor sInstance;
+
+	private final ThreadPoolExecutor mExecutor;
+
+	private CaptureExecutor() {
+		mExecutor = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(QUEUE_CAPACITY), new CaptureThreadFactory("CaptureBackground"));
+		mExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@NonNull
+	static synchronized CaptureExecutor getInstance() {
+		if (sInstance == null) {
+			sInstance = new CaptureExecutor();
+		}
+		return sInstance;
+	}
+
+	/**
+	 * runs the task in the background. Completion is reported by the task itself, e.g. through
+	 * {@link ImageSaver.Callback}, or by the returned future.
+	 *
+	 * @throws java.util.concurrent.RejectedExecutionException if too many tasks are pending
+	 */
+	@NonNull
+	Future<?> submit(@NonNull Runnable task) {
+		return mExecutor.submit(task);
+	}
+
+	/**
+	 * daemon threads with background priority, named prefix-n
+	 */
+	static class CaptureThreadFactory implements ThreadFactory {
+		private final String mPrefix;
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		CaptureThreadFactory(@NonNull String prefix) {
+			mPrefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(@NonNull Runnable runnable) {
+			Thread thread = new Thread(() -> {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				runnable.run();
+			}, mPrefix + "-" + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
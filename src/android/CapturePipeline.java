@@ -0,0 +1,342 @@
+package org.apache.cordova.mediacapture;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.cordova.LOG;
+import org.apache.cordova.mediacapture.PendingRequests.Request;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Post-processing of captured media, it runs while the next capture is taken. Each stage has its
+ * own thread and a bounded queue, items pass the stages in order. If a queue is full, handing an
+ * item to it blocks until there is room, so a slow stage throttles the ones before it and in the
+ * end the next capture.
+ */
+class CapturePipeline {
+	private static final String TAG = CapturePipeline.class.getSimpleName();
+
+	/**
+	 * max items waiting for each stage
+	 */
+	private static final int QUEUE_CAPACITY = 4;
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	interface Callback {
+		/**
+		 * called after each stage of an item, also if the stage failed
+		 *
+		 * @param stage name of the stage, null if no stage was enabled for the item
+		 */
+		void onStageDone(@NonNull Request req, @NonNull Item item, @Nullable String stage);
+	}
+
+	interface FailureCallback {
+		/**
+		 * called instead of {@link Callback#onStageDone} if the item can't be handed to its next
+		 * stage, e.g. because the pipeline was shut down or the waiting thread was interrupted
+		 */
+		void onItemFailed(@NonNull Request req, @NonNull Item item, @NonNull Exception e);
+	}
+
+	interface ProgressCallback {
+		/**
+		 * called by long running stages while they process an item
+		 *
+		 * @param progress 0 to 1
+		 */
+		void onStageProgress(@NonNull Request req, @NonNull Item item, @NonNull String stage, float progress);
+	}
+
+	/**
+	 * a step of the post-processing
+	 */
+	interface Stage {
+		@NonNull
+		String getName();
+
+		boolean isEnabled(@NonNull Request req);
+
+		/**
+		 * processes the item and adds the outcome to its media file JSON
+		 */
+		void process(@NonNull Context context, @NonNull Request req, @NonNull Item item) throws Exception;
+	}
+
+	/**
+	 * a captured file on its way through the pipeline
+	 */
+	static class Item {
+		final int index;
+		@NonNull
+		final Uri uri;
+		@NonNull
+		final JSONObject mediaFile;
+
+		Item(int index, @NonNull Uri uri, @NonNull JSONObject mediaFile) {
+			this.index = index;
+			this.uri = uri;
+			this.mediaFile = mediaFile;
+		}
+	}
+
+	private final Context mContext;
+	private final Callback mCallback;
+	private final FailureCallback mFailureCallback;
+	private final List<Stage> mStages;
+	private final List<ThreadPoolExecutor> mExecutors = new ArrayList<>();
+
+	CapturePipeline(@NonNull Context context, @NonNull Callback callback, @NonNull FailureCallback failureCallback,
+					@NonNull ProgressCallback progressCallback) {
+		//transcoding first, the other stages describe the final file
+		this(context, callback, failureCallback, Arrays.asList(new TranscodeStage(progressCallback), new ProbeStage(),
+				new ThumbnailStage(), new HashStage()));
+	}
+
+	CapturePipeline(@NonNull Context context, @NonNull Callback callback, @NonNull FailureCallback failureCallback,
+					@NonNull List<Stage> stages) {
+		mContext = context.getApplicationContext();
+		mCallback = callback;
+		mFailureCallback = failureCallback;
+		mStages = stages;
+		for (Stage stage : stages) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+					new CaptureExecutor.CaptureThreadFactory("CapturePipeline-" + stage.getName()),
+					CapturePipeline::waitForRoom);
+			executor.allowCoreThreadTimeOut(true);
+			mExecutors.add(executor);
+		}
+	}
+
+	/**
+	 * @return names of the stages the items of the request pass
+	 */
+	@NonNull
+	List<String> getStages(@NonNull Request req) {
+		List<String> names = new ArrayList<>();
+		for (Stage stage : mStages) {
+			if (stage.isEnabled(req))
+				names.add(stage.getName());
+		}
+		return names;
+	}
+
+	/**
+	 * hands the item to the first enabled stage, blocks while its queue is full
+	 */
+	void submit(@NonNull Request req, @NonNull Item item) {
+		if (!enqueue(0, req, item)) {
+			mCallback.onStageDone(req, item, null);
+		}
+	}
+
+	/**
+	 * stops the stage threads, queued items fail so their requests are rejected
+	 */
+	void shutdown() {
+		RejectedExecutionException e = new RejectedExecutionException("pipeline is shut down");
+		for (ThreadPoolExecutor executor : mExecutors) {
+			for (Runnable task : executor.shutdownNow()) {
+				StageTask stageTask = (StageTask) task;
+				mFailureCallback.onItemFailed(stageTask.mReq, stageTask.mItem, e);
+			}
+		}
+	}
+
+	/**
+	 * @return false if no stage from position on is enabled for the request
+	 */
+	private boolean enqueue(int position, Request req, Item item) {
+		for (int i = position; i < mStages.size(); i++) {
+			Stage stage = mStages.get(i);
+			if (!stage.isEnabled(req))
+				continue;
+
+			try {
+				mExecutors.get(i).execute(new StageTask(i, req, item));
+			} catch (RejectedExecutionException e) {
+				LOG.e(TAG, "Could not hand " + item.uri + " to stage " + stage.getName(), e);
+				mFailureCallback.onItemFailed(req, item, e);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * runs a stage for an item and hands it to the next one, keeps both so a task dropped on
+	 * shutdown can fail its item
+	 */
+	private class StageTask implements Runnable {
+		private final int mPosition;
+		private final Request mReq;
+		private final Item mItem;
+
+		StageTask(int position, Request req, Item item) {
+			mPosition = position;
+			mReq = req;
+			mItem = item;
+		}
+
+		@Override
+		public void run() {
+			Stage stage = mStages.get(mPosition);
+			try {
+				stage.process(mContext, mReq, mItem);
+			} catch (Exception e) {
+				LOG.e(TAG, "Stage " + stage.getName() + " failed for " + mItem.uri, e);
+			}
+			mCallback.onStageDone(mReq, mItem, stage.getName());
+			enqueue(mPosition + 1, mReq, mItem);
+		}
+	}
+
+	/**
+	 * backpressure: the submitting thread waits for room instead of dropping the item
+	 */
+	private static void waitForRoom(Runnable task, ThreadPoolExecutor executor) {
+		if (executor.isShutdown())
+			throw new RejectedExecutionException("pipeline is shut down");
+		try {
+			executor.getQueue().put(task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException(e);
+		}
+		//the worker may have timed out in the meantime
+		executor.prestartCoreThread();
+	}
+
+	/**
+	 * re-encodes videos to the requested codec, bitrate and size, the result replaces the captured
+	 * file. The original is kept if transcoding fails.
+	 */
+	static class TranscodeStage implements Stage {
+		private static final String NAME = "transcode";
+
+		private final ProgressCallback mProgressCallback;
+
+		TranscodeStage(@NonNull ProgressCallback progressCallback) {
+			mProgressCallback = progressCallback;
+		}
+
+		@NonNull
+		@Override
+		public String getName() {
+			return NAME;
+		}
+
+		@Override
+		public boolean isEnabled(@NonNull Request req) {
+			return !req.transcodeCodec.isEmpty();
+		}
+
+		@Override
+		public void process(@NonNull Context context, @NonNull Request req, @NonNull Item item) throws Exception {
+			if (!item.mediaFile.optString("type", "").startsWith("video/"))
+				return;
+
+			File target = File.createTempFile("transcode_", ".mp4", context.getCacheDir());
+			try {
+				VideoTranscoder.transcode(context, item.uri, target, req.transcodeCodec, req.transcodeBitrate,
+						req.transcodeMaxSize, progress -> mProgressCallback.onStageProgress(req, item, NAME, progress));
+				if (!MediaStorePublisher.copy(context.getContentResolver(), target, item.uri, "wt"))
+					throw new IOException("could not replace " + item.uri);
+				item.mediaFile.put("size", target.length());
+			} finally {
+				if (!target.delete()) {
+					LOG.w(TAG, "could not delete " + target);
+				}
+			}
+		}
+	}
+
+	/**
+	 * reads the MediaFileData of the item, it is returned as formatData and cached for
+	 * later getFormatData calls
+	 */
+	static class ProbeStage implements Stage {
+		@NonNull
+		@Override
+		public String getName() {
+			return "probe";
+		}
+
+		@Override
+		public boolean isEnabled(@NonNull Request req) {
+			return req.formatData;
+		}
+
+		@Override
+		public void process(@NonNull Context context, @NonNull Request req, @NonNull Item item) throws Exception {
+			item.mediaFile.put("formatData",
+					FormatDataReader.read(context, item.uri.toString(), item.mediaFile.optString("type", null)));
+		}
+	}
+
+	/**
+	 * adds the url of a cached thumbnail of the item
+	 */
+	static class ThumbnailStage implements Stage {
+		@NonNull
+		@Override
+		public String getName() {
+			return "thumbnail";
+		}
+
+		@Override
+		public boolean isEnabled(@NonNull Request req) {
+			return req.thumbnail > 0;
+		}
+
+		@Override
+		public void process(@NonNull Context context, @NonNull Request req, @NonNull Item item) throws Exception {
+			File thumbnail = ThumbnailCache.get(context, item.uri, item.mediaFile.optString("type", null), req.thumbnail);
+			if (thumbnail != null) {
+				item.mediaFile.put("thumbnail", Uri.fromFile(thumbnail).toString());
+			}
+		}
+	}
+
+	/**
+	 * adds the content hash of the item and the uri of an earlier capture with the same content
+	 */
+	static class HashStage implements Stage {
+		@NonNull
+		@Override
+		public String getName() {
+			return "hash";
+		}
+
+		@Override
+		public boolean isEnabled(@NonNull Request req) {
+			return HashIndex.SHA_256.equals(req.hash);
+		}
+
+		@Override
+		public void process(@NonNull Context context, @NonNull Request req, @NonNull Item item) throws Exception {
+			String hash = HashIndex.sha256(context, item.uri);
+			item.mediaFile.put("hash", hash);
+
+			Uri duplicate = HashIndex.get(context, hash);
+			if (duplicate != null && !duplicate.equals(item.uri)) {
+				item.mediaFile.put("duplicateOf", duplicate.toString());
+			}
+			HashIndex.put(context, hash, item.uri);
+		}
+	}
+}
@@ -0,0 +1,342 @@
+package org.apache.cordova.mediacapture;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FileDescriptor;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal exif reader/writer working on the encoded jpeg bytes. Used to patch single IFD0 values
+ * in place or to inject an exif segment while the jpeg is written, without decoding the image or
+ * letting {@link android.media.ExifInterface} rewrite the whole file.
+ */
+class ExifPatcher {
+	static final int TAG_ORIENTATION = 0x0112;
+	static final int TAG_DATETIME = 0x0132;
+	static final int TYPE_ASCII = 2;
+	static final int TYPE_SHORT = 3;
+
+	private static final int MARKER_SOI = 0xD8;
+	private static final int MARKER_EOI = 0xD9;
+	private static final int MARKER_SOS = 0xDA;
+	private static final int MARKER_APP1 = 0xE1;
+
+	/**
+	 * exif has to be stored in a single APP1 segment (max 64k) which follows SOI and maybe APP0
+	 */
+	private static final int HEADER_SCAN_SIZE = 128 * 1024;
+
+	/**
+	 * location of an IFD0 entry value
+	 */
+	static class Entry {
+		final int type;
+		final int count;
+		/**
+		 * absolute offset of the value within the jpeg
+		 */
+		final int valueOffset;
+		final ByteOrder order;
+
+		private Entry(int type, int count, int valueOffset, ByteOrder order) {
+			this.type = type;
+			this.count = count;
+			this.valueOffset = valueOffset;
+			this.order = order;
+		}
+	}
+
+	/**
+	 * reads the leading part of a jpeg file that contains the exif segment
+	 *
+	 * @param fd readable file descriptor
+	 * @return buffer with the header bytes, limited to the bytes read
+	 */
+	@NonNull
+	static ByteBuffer readHeader(FileDescriptor fd) throws IOException {
+		byte[] header = new byte[HEADER_SCAN_SIZE];
+		int read = 0;
+		try {
+			while (read < header.length) {
+				int n = Os.pread(fd, header, read, header.length - read, read);
+				if (n <= 0) break;
+				read += n;
+			}
+		} catch (ErrnoException e) {
+			throw new IOException("could not read jpeg header", e);
+		}
+		return ByteBuffer.wrap(header, 0, read).slice();
+	}
+
+	/**
+	 * @param jpeg encoded jpeg or at least its header, starting with SOI
+	 * @return true if the jpeg has an exif segment
+	 */
+	static boolean hasExif(@NonNull ByteBuffer jpeg) {
+		return findExifSegment(jpeg) != null;
+	}
+
+	/**
+	 * finds a tag in IFD0 of the exif segment
+	 *
+	 * @param jpeg encoded jpeg or at least its header, starting with SOI
+	 * @param tag  exif tag id
+	 * @return entry or null if there is no exif segment or the tag isn't present
+	 */
+	@Nullable
+	static Entry findEntry(@NonNull ByteBuffer jpeg, int tag) {
+		int[] segment = findExifSegment(jpeg);
+		if (segment == null)
+			return null;
+		return findInTiff(jpeg.duplicate(), segment[0], segment[1], tag);
+	}
+
+	/**
+	 * overwrites orientation and date of the existing exif segment in the given buffer
+	 *
+	 * @param jpeg        encoded jpeg, modified in place
+	 * @param orientation exif orientation
+	 * @param dateTime    date formatted as yyyy:MM:dd HH:mm:ss
+	 * @return true if both tags were present and patched
+	 */
+	static boolean patch(@NonNull ByteBuffer jpeg, int orientation, @NonNull String dateTime) {
+		boolean patched = true;
+
+		Entry orientationEntry = findEntry(jpeg, TAG_ORIENTATION);
+		if (orientationEntry != null && orientationEntry.type == TYPE_SHORT) {
+			jpeg.duplicate().order(orientationEntry.order).putShort(orientationEntry.valueOffset, (short) orientation);
+		} else {
+			patched = false;
+		}
+
+		byte[] date = toAscii(dateTime);
+		Entry dateEntry = findEntry(jpeg, TAG_DATETIME);
+		if (dateEntry != null && dateEntry.type == TYPE_ASCII && dateEntry.count == date.length) {
+			ByteBuffer value = jpeg.duplicate();
+			value.position(dateEntry.valueOffset);
+			value.put(date);
+		} else {
+			patched = false;
+		}
+
+		return patched;
+	}
+
+	/**
+	 * builds an APP1 segment with an IFD0 holding orientation and date only
+	 *
+	 * @param orientation exif orientation
+	 * @param dateTime    date formatted as yyyy:MM:dd HH:mm:ss
+	 * @return the segment including marker and length
+	 */
+	@NonNull
+	static byte[] buildSegment(int orientation, @NonNull String dateTime) {
+		byte[] date = toAscii(dateTime);
+		int entries = 2;
+		int ifdSize = 2 + entries * 12 + 4;
+		int tiffSize = 8 + ifdSize + date.length;
+
+		ByteBuffer segment = ByteBuffer.allocate(4 + 6 + tiffSize).order(ByteOrder.BIG_ENDIAN);
+		segment.put((byte) 0xFF).put((byte) MARKER_APP1).putShort((short) (2 + 6 + tiffSize));
+		segment.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+
+		//tiff header, big endian, IFD0 directly after it
+		segment.put((byte) 'M').put((byte) 'M').putShort((short) 0x002A).putInt(8);
+		segment.putShort((short) entries);
+		segment.putShort((short) TAG_ORIENTATION).putShort((short) TYPE_SHORT).putInt(1)
+				.putShort((short) orientation).putShort((short) 0);
+		segment.putShort((short) TAG_DATETIME).putShort((short) TYPE_ASCII).putInt(date.length)
+				.putInt(8 + ifdSize);
+		//no next IFD
+		segment.putInt(0);
+		segment.put(date);
+
+		return segment.array();
+	}
+
+	/**
+	 * Writes an exif segment directly after the SOI marker of the jpeg written through it
+	 */
+	static class InjectingOutputStream extends FilterOutputStream {
+		private static final int SOI_LENGTH = 2;
+
+		private final byte[] mSegment;
+		private int mWritten = 0;
+
+		/**
+		 * @param out     target stream
+		 * @param segment segment from {@link #buildSegment(int, String)}
+		 */
+		InjectingOutputStream(@NonNull OutputStream out, @NonNull byte[] segment) {
+			super(out);
+			this.mSegment = segment;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(@NonNull byte[] b, int off, int len) throws IOException {
+			if (mWritten < SOI_LENGTH) {
+				int head = Math.min(len, SOI_LENGTH - mWritten);
+				out.write(b, off, head);
+				mWritten += head;
+				if (mWritten == SOI_LENGTH)
+					out.write(mSegment);
+				off += head;
+				len -= head;
+			}
+			if (len > 0)
+				out.write(b, off, len);
+		}
+	}
+
+	/**
+	 * @return start of the tiff header and end of the exif segment, or null if there is none
+	 */
+	@Nullable
+	private static int[] findExifSegment(@NonNull ByteBuffer jpeg) {
+		ByteBuffer buf = jpeg.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int limit = buf.limit();
+		if (limit < 4 || (buf.get(0) & 0xFF) != 0xFF || (buf.get(1) & 0xFF) != MARKER_SOI)
+			return null;
+
+		int pos = 2;
+		while (pos + 4 <= limit) {
+			if ((buf.get(pos) & 0xFF) != 0xFF)
+				return null;
+			int marker = buf.get(pos + 1) & 0xFF;
+			if (marker == 0xFF) {
+				//fill byte
+				pos++;
+				continue;
+			}
+			if (marker == MARKER_SOS || marker == MARKER_EOI)
+				return null;
+
+			int length = buf.getShort(pos + 2) & 0xFFFF;
+			int end = Math.min(pos + 2 + length, limit);
+			if (marker == MARKER_APP1 && isExifHeader(buf, pos + 4, end)) {
+				return new int[]{pos + 10, end};
+			}
+			pos += 2 + length;
+		}
+		return null;
+	}
+
+	/**
+	 * @return ascii bytes including the terminating NUL
+	 */
+	private static byte[] toAscii(String value) {
+		byte[] ascii = value.getBytes(StandardCharsets.US_ASCII);
+		return Arrays.copyOf(ascii, ascii.length + 1);
+	}
+
+	/**
+	 * @return the SHORT value of the given entry
+	 */
+	static int getShort(@NonNull ByteBuffer jpeg, @NonNull Entry entry) {
+		return jpeg.duplicate().order(entry.order).getShort(entry.valueOffset) & 0xFFFF;
+	}
+
+	/**
+	 * overwrites the SHORT value of the given entry in the file
+	 *
+	 * @param fd    writable file descriptor of the jpeg the entry was read from
+	 * @param entry entry of type {@link #TYPE_SHORT}
+	 * @param value new value
+	 */
+	static void putShort(FileDescriptor fd, @NonNull Entry entry, int value) throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(2).order(entry.order);
+		data.putShort(0, (short) value);
+		try {
+			if (Os.pwrite(fd, data, entry.valueOffset) != 2)
+				throw new IOException("could not write exif value");
+		} catch (ErrnoException e) {
+			throw new IOException("could not write exif value", e);
+		}
+	}
+
+	private static boolean isExifHeader(ByteBuffer buf, int offset, int end) {
+		return offset + 6 <= end
+				&& buf.get(offset) == 'E'
+				&& buf.get(offset + 1) == 'x'
+				&& buf.get(offset + 2) == 'i'
+				&& buf.get(offset + 3) == 'f'
+				&& buf.get(offset + 4) == 0
+				&& buf.get(offset + 5) == 0;
+	}
+
+	@Nullable
+	private static Entry findInTiff(ByteBuffer buf, int tiffStart, int end, int tag) {
+		if (tiffStart + 8 > end)
+			return null;
+
+		ByteOrder order;
+		if (buf.get(tiffStart) == 'I' && buf.get(tiffStart + 1) == 'I') {
+			order = ByteOrder.LITTLE_ENDIAN;
+		} else if (buf.get(tiffStart) == 'M' && buf.get(tiffStart + 1) == 'M') {
+			order = ByteOrder.BIG_ENDIAN;
+		} else {
+			return null;
+		}
+
+		ByteBuffer tiff = buf.duplicate().order(order);
+		long ifdOffset = tiff.getInt(tiffStart + 4) & 0xFFFFFFFFL;
+		if (ifdOffset < 8 || tiffStart + ifdOffset + 2 > end)
+			return null;
+
+		int ifd = tiffStart + (int) ifdOffset;
+		int entries = tiff.getShort(ifd) & 0xFFFF;
+		for (int i = 0; i < entries; i++) {
+			int entry = ifd + 2 + i * 12;
+			if (entry + 12 > end)
+				return null;
+			if ((tiff.getShort(entry) & 0xFFFF) != tag)
+				continue;
+
+			int type = tiff.getShort(entry + 2) & 0xFFFF;
+			int count = tiff.getInt(entry + 4);
+			long size = (long) count * typeSize(type);
+			if (count < 0 || size <= 0)
+				return null;
+
+			long valueOffset = size <= 4 ? entry + 8 : tiffStart + (tiff.getInt(entry + 8) & 0xFFFFFFFFL);
+			if (valueOffset + size > end)
+				return null;
+			return new Entry(type, count, (int) valueOffset, order);
+		}
+		return null;
+	}
+
+	private static int typeSize(int type) {
+		switch (type) {
+			case 1: //BYTE
+			case TYPE_ASCII:
+			case 6: //SBYTE
+			case 7: //UNDEFINED
+				return 1;
+			case TYPE_SHORT:
+			case 8: //SSHORT
+				return 2;
+			case 4: //LONG
+			case 9: //SLONG
+			case 11: //FLOAT
+				return 4;
+			default: //RATIONAL, SRATIONAL, DOUBLE
+				return 8;
+		}
+	}
+}
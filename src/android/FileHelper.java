@@ -20,6 +20,7 @@ package org.apache.cordova.mediacapture;
 
 import android.app.Activity;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -28,18 +29,27 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.provider.MediaStore;
+import android.text.TextUtils;
 import android.webkit.MimeTypeMap;
 
 import androidx.annotation.Nullable;
 
 import org.apache.cordova.LOG;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 // TODO: Replace with CordovaResourceApi.getMimeType() post 3.1.
 public class FileHelper {
@@ -48,11 +58,52 @@ public class FileHelper {
     static final String AUDIO_MPEG = "audio/mpeg";
     static final String[] AUDIO_TYPES = new String[]{"audio/3gpp", "audio/aac", "audio/amr", "audio/wav"};
     static final String IMAGE_JPEG = "image/jpeg";
+    static final String IMAGE_WEBP = "image/webp";
+    static final String IMAGE_HEIF = "image/heif";
     static final String AUDIO_3GPP = "audio/3gpp";
     static final String VIDEO_3GPP = "video/3gpp";
 
+    // Where captures are written, see the storage capture option
+    static final String STORAGE_GALLERY = "gallery";
+    static final String STORAGE_DEFERRED = "deferred";
+    static final String STORAGE_PRIVATE = "private";
+
     private final static String TAG = "FileHelper";
+
+    private static final String SCRATCH_DIRECTORY = "mediacapture-scratch";
+    private static final long SCRATCH_MAX_AGE = 24 * 60 * 60 * 1000;
+
+    // Private files created ahead of a capture by prepareCapture, renamed once they are used
+    private static final String CAPTURE_PREFIX = "capture_";
+    private static final String PREPARED_PREFIX = "prepared_";
+
+    private static final String[] PROJECTION = new String[]{
+            MediaStore.MediaColumns._ID,
+            MediaStore.MediaColumns.DISPLAY_NAME,
+            MediaStore.MediaColumns.MIME_TYPE,
+            MediaStore.MediaColumns.DATA,
+            MediaStore.MediaColumns.DATE_MODIFIED,
+            MediaStore.MediaColumns.SIZE,
+            MediaStore.MediaColumns.DATE_TAKEN
+    };
+
+    // SimpleDateFormat isn't thread safe, each worker thread gets its own
+    private static final ThreadLocal<DateFormat> DATE_FORMATTER = ThreadLocal.withInitial(
+            () -> new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.getDefault()));
+
     public static Uri getAndCreateFile(String action, Activity activity) throws IllegalArgumentException {
+        return getAndCreateFile(action, activity, IMAGE_JPEG);
+    }
+
+    /**
+     * Inserts a new media store entry for the capture
+     *
+     * @param action    capture intent action
+     * @param activity  calling activity
+     * @param imageType mime type of images, ignored for audio and video
+     * @return content uri of the new entry
+     */
+    public static Uri getAndCreateFile(String action, Activity activity, String imageType) throws IllegalArgumentException {
         ContentResolver contentResolver = activity.getContentResolver();
         ContentValues cv = new ContentValues();
         switch (action) {
@@ -62,7 +113,7 @@ public class FileHelper {
                                 ? MediaStore.Video.Media.EXTERNAL_CONTENT_URI : MediaStore.Video.Media.INTERNAL_CONTENT_URI,
                         cv);
             case MediaStore.ACTION_IMAGE_CAPTURE:
-                cv.put(MediaStore.Images.Media.MIME_TYPE, IMAGE_JPEG);
+                cv.put(MediaStore.Images.Media.MIME_TYPE, imageType);
                 return contentResolver.insert(isExternalContentStore()
                                 ? MediaStore.Images.Media.EXTERNAL_CONTENT_URI : MediaStore.Images.Media.INTERNAL_CONTENT_URI,
                         cv);
@@ -85,6 +136,187 @@ public class FileHelper {
     }
 
 
+    /**
+     * Creates an app-private file for the capture, it is published to the media store once the
+     * capture request resolves, see {@link MediaStorePublisher}
+     *
+     * @param action    capture intent action
+     * @param context   calling context
+     * @param imageType mime type of images, ignored for audio and video
+     * @return file uri of the new file
+     */
+    public static Uri createScratchFile(String action, Context context, String imageType) throws IOException {
+        return createFile(getScratchDirectory(context), action, imageType);
+    }
+
+    /**
+     * Creates a file for the capture in the app's own storage, it is never added to the media
+     * store. The app specific external directory is preferred, internal storage is used if
+     * there is no external storage.
+     *
+     * @param action    capture intent action
+     * @param context   calling context
+     * @param imageType mime type of images, ignored for audio and video
+     * @return file uri of the new file
+     */
+    public static Uri createPrivateFile(String action, Context context, String imageType) throws IOException {
+        return createFile(getPrivateDirectory(action, context), action, imageType, CAPTURE_PREFIX);
+    }
+
+    /**
+     * Creates a private file ahead of a capture. It is deleted at the next start unless
+     * {@link #claimPreparedFile} is called for it.
+     */
+    public static Uri createPreparedFile(String action, Context context, String imageType) throws IOException {
+        return createFile(getPrivateDirectory(action, context), action, imageType, PREPARED_PREFIX);
+    }
+
+    /**
+     * Renames a file created by {@link #createPreparedFile} to a regular capture file, other
+     * uris are returned as they are
+     *
+     * @return uri of the capture file, null if the prepared file could not be renamed
+     */
+    public static Uri claimPreparedFile(Uri uri) {
+        String path = uri.getPath();
+        File file = "file".equals(uri.getScheme()) && path != null ? new File(path) : null;
+        if (file == null || !file.getName().startsWith(PREPARED_PREFIX)) {
+            return uri;
+        }
+
+        File target = new File(file.getParentFile(), CAPTURE_PREFIX + file.getName().substring(PREPARED_PREFIX.length()));
+        if (!file.renameTo(target)) {
+            LOG.w(TAG, "could not rename prepared file " + file);
+            file.delete();
+            return null;
+        }
+        return Uri.fromFile(target);
+    }
+
+    /**
+     * Deletes prepared files older than maxAge, they were left behind by an app that was killed
+     * before it used them
+     */
+    public static void deleteStalePreparedFiles(Context context, long maxAge) {
+        long now = System.currentTimeMillis();
+        for (String action : new String[]{MediaStore.ACTION_IMAGE_CAPTURE, MediaStore.ACTION_VIDEO_CAPTURE}) {
+            File[] files = getPrivateDirectory(action, context).listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.getName().startsWith(PREPARED_PREFIX) && now - file.lastModified() > maxAge && !file.delete()) {
+                    LOG.w(TAG, "could not delete stale prepared file " + file);
+                }
+            }
+        }
+    }
+
+    private static File getPrivateDirectory(String action, Context context) {
+        String type;
+        switch (action) {
+            case MediaStore.ACTION_VIDEO_CAPTURE:
+                type = Environment.DIRECTORY_MOVIES;
+                break;
+            case MediaStore.Audio.Media.RECORD_SOUND_ACTION:
+                type = Environment.DIRECTORY_MUSIC;
+                break;
+            default:
+                type = Environment.DIRECTORY_PICTURES;
+                break;
+        }
+
+        File directory = context.getExternalFilesDir(type);
+        if (directory == null) {
+            directory = new File(context.getFilesDir(), type);
+        }
+        return directory;
+    }
+
+    /**
+     * Creates a new, empty file for the capture in the directory
+     *
+     * @param directory directory of the file, created if missing
+     * @param action    capture intent action
+     * @param imageType mime type of images, ignored for audio and video
+     * @return file uri of the new file
+     */
+    public static Uri createFile(File directory, String action, String imageType) throws IOException {
+        return createFile(directory, action, imageType, CAPTURE_PREFIX);
+    }
+
+    private static Uri createFile(File directory, String action, String imageType, String prefix) throws IOException {
+        String extension;
+        switch (action) {
+            case MediaStore.ACTION_VIDEO_CAPTURE:
+                extension = ".mp4";
+                break;
+            case MediaStore.ACTION_IMAGE_CAPTURE:
+                String imageExtension = MimeTypeMap.getSingleton().getExtensionFromMimeType(imageType);
+                extension = "." + (imageExtension != null ? imageExtension : "jpg");
+                break;
+            case MediaStore.Audio.Media.RECORD_SOUND_ACTION:
+                extension = ".mp3";
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected action: " + action);
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+        return Uri.fromFile(File.createTempFile(prefix, extension, directory));
+    }
+
+    /**
+     * @return true if the uri points to a scratch file created by {@link #createScratchFile}
+     */
+    public static boolean isScratchFile(Context context, Uri uri) {
+        return "file".equals(uri.getScheme()) && uri.getPath() != null
+                && getScratchDirectory(context).equals(new File(uri.getPath()).getParentFile());
+    }
+
+    /**
+     * Deletes scratch files left behind by captures that never resolved, e.g. because the app
+     * was killed
+     */
+    public static void deleteStaleScratchFiles(Context context) {
+        File[] files = getScratchDirectory(context).listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (now - file.lastModified() > SCRATCH_MAX_AGE && !file.delete()) {
+                LOG.w(TAG, "could not delete stale scratch file " + file);
+            }
+        }
+    }
+
+    private static File getScratchDirectory(Context context) {
+        return new File(context.getCacheDir(), SCRATCH_DIRECTORY);
+    }
+
+    /**
+     * @return true if the uri points to a media store entry, false for files of the app
+     */
+    public static boolean isContentUri(Uri uri) {
+        return ContentResolver.SCHEME_CONTENT.equals(uri.getScheme());
+    }
+
+    /**
+     * Deletes a capture, a media store entry or a file of the app
+     *
+     * @return true if something was deleted
+     */
+    public static boolean deleteFile(Context context, Uri uri) {
+        if ("file".equals(uri.getScheme())) {
+            return uri.getPath() != null && new File(uri.getPath()).delete();
+        }
+        return context.getContentResolver().delete(uri, null, null) > 0;
+    }
+
     /**
      * Queries the content provider for a single media file based on the provided parameters.
      *
@@ -103,20 +335,6 @@ public class FileHelper {
 
     @Nullable
     public static JSONObject queryContentProvider(Context context, Uri collection, int limit) {
-        final DateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.getDefault());
-        final String[] projection;
-        projection = new String[]{
-                MediaStore.MediaColumns._ID,
-                MediaStore.MediaColumns.DISPLAY_NAME,
-                MediaStore.MediaColumns.MIME_TYPE,
-                MediaStore.MediaColumns.DATA,
-                MediaStore.MediaColumns.DATE_MODIFIED,
-                MediaStore.MediaColumns.SIZE,
-                MediaStore.MediaColumns.DATE_TAKEN
-        };
-        String selection = null;
-        String[] selectionArgs = null;
-
         Bundle bundle = new Bundle();
         if (limit > 0) {
             bundle.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
@@ -125,14 +343,12 @@ public class FileHelper {
         bundle.putStringArray(
                 ContentResolver.QUERY_ARG_SORT_COLUMNS,
                 new String[]{MediaStore.Audio.Media.DATE_TAKEN});
-        bundle.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
-        bundle.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
 
         JSONObject finalItem = new JSONObject();
         try (Cursor cursor = context.getContentResolver().query(
                 collection,
-                projection,
-                bundle,null)) {
+                PROJECTION,
+                bundle, null)) {
             if (cursor == null) {
                 LOG.e(TAG, "Cursor is null");
                 return null;
@@ -141,48 +357,9 @@ public class FileHelper {
 
             // Check if the cursor has any rows
             if (cursor.moveToFirst()) {
+                Columns columns = new Columns(cursor);
                 do {
-                    int nameColumn = cursor.getColumnIndex(MediaStore.MediaColumns.DISPLAY_NAME);
-                    int mimeTypeColumn = cursor.getColumnIndex(MediaStore.MediaColumns.MIME_TYPE);
-                    int dataColumn = cursor.getColumnIndex(MediaStore.MediaColumns.DATA);
-                    int sizeColumn = cursor.getColumnIndex(MediaStore.MediaColumns.SIZE);
-                    int dateTakenColumn = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_TAKEN);
-                    int dateModifiedColumn = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
-
-                    String name = cursor.getString(nameColumn);
-                    finalItem.put("name", name != null ? name : "");
-
-                    String fullPath;
-                    if (dataColumn != -1) {
-                        fullPath = cursor.getString(dataColumn);
-                    } else {
-                        fullPath = collection.toString();
-                    }
-                    finalItem.put("fullPath", fullPath != null ? fullPath : collection.toString());
-
-                    String mimeType = null;
-                    if (mimeTypeColumn != -1) {
-                        mimeType = cursor.getString(mimeTypeColumn);
-                    }
-                    if (mimeType == null || mimeType.isEmpty()) {
-                        mimeType = getMimeType(collection, context);
-                    }
-                    finalItem.put("type", mimeType != null ? mimeType : "");
-
-                    long dateTaken = 0;
-                    if (dateTakenColumn > -1)
-                        dateTaken = cursor.getLong(dateTakenColumn);
-                    long dateModified = 0;
-                    if (dateModifiedColumn > -1)
-                        dateModified = cursor.getLong(dateModifiedColumn);
-                    long newDate = dateModified > 0 ? dateModified : dateTaken;
-                    Date date = new Date(newDate > 0 ? newDate : new Date().getTime());
-                    finalItem.put("lastModifiedDate", dateFormatter.format(date));
-
-                    long size = 0;
-                    if (sizeColumn > -1)
-                        size = cursor.getLong(sizeColumn);
-                    finalItem.put("size", size);
+                    finalItem = toMediaFile(context, cursor, columns, collection);
                 } while (cursor.moveToNext());
 
             } else {
@@ -197,6 +374,137 @@ public class FileHelper {
         return finalItem;
     }
 
+    /**
+     * Queries the content provider for many media files with one query per collection,
+     * usually a single one.
+     *
+     * @param context The application context.
+     * @param uris    Content URIs of single media files, e.g. content://media/external/images/media/42
+     * @return A JSONObject per found URI in the order of the given URIs, see
+     * {@link #queryContentProvider(Context, Uri, int)}. URIs without a row are missing.
+     */
+    public static Map<Uri, JSONObject> queryContentProvider(Context context, List<Uri> uris) {
+        // group the ids by collection, captures of one request normally share it
+        Map<Uri, List<Uri>> collections = new LinkedHashMap<>();
+        for (Uri uri : uris) {
+            Uri collection = uri.buildUpon().path(uri.getPath().substring(0, uri.getPath().lastIndexOf('/'))).build();
+            List<Uri> items = collections.get(collection);
+            if (items == null) {
+                items = new ArrayList<>();
+                collections.put(collection, items);
+            }
+            items.add(uri);
+        }
+
+        Map<Uri, JSONObject> found = new HashMap<>();
+        for (Map.Entry<Uri, List<Uri>> entry : collections.entrySet()) {
+            List<Uri> items = entry.getValue();
+            Map<Long, Uri> byId = new HashMap<>();
+            String[] selectionArgs = new String[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                long id = ContentUris.parseId(items.get(i));
+                byId.put(id, items.get(i));
+                selectionArgs[i] = String.valueOf(id);
+            }
+            String selection = MediaStore.MediaColumns._ID + " IN ("
+                    + TextUtils.join(",", Collections.nCopies(items.size(), "?")) + ")";
+
+            try (Cursor cursor = context.getContentResolver().query(
+                    entry.getKey(), PROJECTION, selection, selectionArgs, null)) {
+                if (cursor == null || !cursor.moveToFirst()) {
+                    LOG.w(TAG, "No data found in " + entry.getKey());
+                    continue;
+                }
+
+                Columns columns = new Columns(cursor);
+                do {
+                    Uri uri = byId.get(cursor.getLong(columns.id));
+                    if (uri != null) {
+                        found.put(uri, toMediaFile(context, cursor, columns, uri));
+                    }
+                } while (cursor.moveToNext());
+            } catch (Exception e) {
+                LOG.e(TAG, "Error querying content provider", e);
+            }
+        }
+
+        Map<Uri, JSONObject> result = new LinkedHashMap<>();
+        for (Uri uri : uris) {
+            JSONObject item = found.get(uri);
+            if (item != null) {
+                result.put(uri, item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds the media file JSON of the current cursor row
+     *
+     * @param uri uri of the row, used if the row has no path or mime type
+     */
+    private static JSONObject toMediaFile(Context context, Cursor cursor, Columns columns, Uri uri) throws JSONException {
+        JSONObject item = new JSONObject();
+        String name = cursor.getString(columns.name);
+        item.put("name", name != null ? name : "");
+
+        String fullPath;
+        if (columns.data != -1) {
+            fullPath = cursor.getString(columns.data);
+        } else {
+            fullPath = uri.toString();
+        }
+        item.put("fullPath", fullPath != null ? fullPath : uri.toString());
+
+        String mimeType = null;
+        if (columns.mimeType != -1) {
+            mimeType = cursor.getString(columns.mimeType);
+        }
+        if (mimeType == null || mimeType.isEmpty()) {
+            mimeType = getMimeType(uri, context);
+        }
+        item.put("type", mimeType != null ? mimeType : "");
+
+        long dateTaken = 0;
+        if (columns.dateTaken > -1)
+            dateTaken = cursor.getLong(columns.dateTaken);
+        long dateModified = 0;
+        if (columns.dateModified > -1)
+            dateModified = cursor.getLong(columns.dateModified);
+        long newDate = dateModified > 0 ? dateModified : dateTaken;
+        Date date = new Date(newDate > 0 ? newDate : new Date().getTime());
+        item.put("lastModifiedDate", DATE_FORMATTER.get().format(date));
+
+        long size = 0;
+        if (columns.size > -1)
+            size = cursor.getLong(columns.size);
+        item.put("size", size);
+        return item;
+    }
+
+    /**
+     * Column indices of {@link #PROJECTION}, resolved once per cursor
+     */
+    private static class Columns {
+        final int id;
+        final int name;
+        final int mimeType;
+        final int data;
+        final int size;
+        final int dateTaken;
+        final int dateModified;
+
+        Columns(Cursor cursor) {
+            id = cursor.getColumnIndex(MediaStore.MediaColumns._ID);
+            name = cursor.getColumnIndex(MediaStore.MediaColumns.DISPLAY_NAME);
+            mimeType = cursor.getColumnIndex(MediaStore.MediaColumns.MIME_TYPE);
+            data = cursor.getColumnIndex(MediaStore.MediaColumns.DATA);
+            size = cursor.getColumnIndex(MediaStore.MediaColumns.SIZE);
+            dateTaken = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_TAKEN);
+            dateModified = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+        }
+    }
+
     public static String getMimeType(Uri uri, Context context) {
         String mimeType;
         if ("content".equals(uri.getScheme())) {
@@ -0,0 +1,169 @@
+package org.apache.cordova.mediacapture;
+
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.cordova.LOG;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the MediaFileData of images, audio and video files without decoding or preparing a
+ * player. Results are cached by uri, size and modification time, so unchanged files are only
+ * probed once.
+ */
+class FormatDataReader {
+	private static final String TAG = FormatDataReader.class.getSimpleName();
+
+	private static final int CACHE_SIZE = 64;
+
+	/**
+	 * max files probed at the same time by batch requests
+	 */
+	private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private static final LruCache<String, JSONObject> sCache = new LruCache<>(CACHE_SIZE);
+
+	private static ThreadPoolExecutor sExecutor;
+
+	private FormatDataReader() {
+	}
+
+	/**
+	 * @return executor for probing many files in parallel, idle threads are released
+	 */
+	@NonNull
+	static synchronized ExecutorService getExecutor() {
+		if (sExecutor == null) {
+			sExecutor = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>());
+			sExecutor.allowCoreThreadTimeOut(true);
+		}
+		return sExecutor;
+	}
+
+	/**
+	 * @param context  context for content resolver and mime type lookups
+	 * @param filePath file path, file: or content: uri
+	 * @param mimeType mime type of the file, looked up if empty
+	 * @return MediaFileData JSON, zero values if the file could not be read
+	 */
+	@NonNull
+	static JSONObject read(@NonNull Context context, @NonNull String filePath, @Nullable String mimeType) throws JSONException {
+		Uri uri = filePath.startsWith("file:") || filePath.startsWith("content:")
+				? Uri.parse(filePath) : Uri.fromFile(new File(filePath));
+
+		// If the mimeType isn't set the rest will fail
+		// so let's see if we can determine it.
+		if (mimeType == null || mimeType.isEmpty() || "null".equals(mimeType)) {
+			mimeType = FileHelper.getMimeType(uri, context);
+		}
+		LOG.d(TAG, "Mime type = " + mimeType);
+
+		try (ParcelFileDescriptor parcelFileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r")) {
+			FileDescriptor fd = parcelFileDescriptor.getFileDescriptor();
+			StructStat stat = Os.fstat(fd);
+			String key = uri + "|" + stat.st_size + "|" + stat.st_mtime;
+
+			JSONObject obj = sCache.get(key);
+			if (obj == null) {
+				obj = probe(fd, mimeType, uri.getPath());
+				sCache.put(key, obj);
+			}
+			return obj;
+		} catch (IOException | ErrnoException | RuntimeException e) {
+			LOG.e(TAG, "Error reading format data of " + filePath, e);
+			return createDefaults();
+		}
+	}
+
+	private static JSONObject probe(FileDescriptor fd, @Nullable String mimeType, @Nullable String path) throws JSONException, IOException {
+		JSONObject obj = createDefaults();
+		if (mimeType == null)
+			return obj;
+
+		if (mimeType.startsWith("image/") || (path != null && path.endsWith(".jpg"))) {
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeFileDescriptor(fd, null, options);
+			obj.put("height", options.outHeight);
+			obj.put("width", options.outWidth);
+		} else if (mimeType.startsWith("audio/") || mimeType.startsWith("video/")) {
+			readAudioVideo(fd, obj, mimeType.startsWith("video/"));
+		}
+		return obj;
+	}
+
+	private static void readAudioVideo(FileDescriptor fd, JSONObject obj, boolean video) throws JSONException, IOException {
+		MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+		try {
+			retriever.setDataSource(fd);
+			obj.put("duration", parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)) / 1000);
+			obj.put("bitrate", parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE)));
+			if (video) {
+				obj.put("height", parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)));
+				obj.put("width", parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)));
+			}
+		} finally {
+			retriever.release();
+		}
+
+		//the retriever doesn't report codecs, the extractor only reads the container headers
+		MediaExtractor extractor = new MediaExtractor();
+		try {
+			extractor.setDataSource(fd);
+			Set<String> codecs = new LinkedHashSet<>();
+			for (int i = 0; i < extractor.getTrackCount(); i++) {
+				String codec = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+				if (codec != null)
+					codecs.add(codec);
+			}
+			obj.put("codecs", String.join(",", codecs));
+		} finally {
+			extractor.release();
+		}
+	}
+
+	private static JSONObject createDefaults() throws JSONException {
+		JSONObject obj = new JSONObject();
+		obj.put("height", 0);
+		obj.put("width", 0);
+		obj.put("bitrate", 0);
+		obj.put("duration", 0);
+		obj.put("codecs", "");
+		return obj;
+	}
+
+	private static long parseLong(@Nullable String value) {
+		if (value == null)
+			return 0;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package org.apache.cordova.mediacapture;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * Content hashes of captures and a persistent index of the uri each hash was last seen at, so
+ * recaptures of identical content are detected without reading the earlier file again. The index
+ * keeps the {@link #MAX_ENTRIES} most recent hashes.
+ */
+class HashIndex {
+	static final String SHA_256 = "sha256";
+
+	private static final String PREFERENCES = "org.apache.cordova.mediacapture.hashes";
+	private static final int MAX_ENTRIES = 500;
+	/**
+	 * bytes mapped at once, large videos are hashed in several windows
+	 */
+	private static final long MAP_SIZE = 64 * 1024 * 1024;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private HashIndex() {
+	}
+
+	/**
+	 * hashes the file in a single pass over a memory mapping, no copies on the java heap
+	 *
+	 * @return lowercase hex SHA-256 of the content
+	 */
+	@NonNull
+	static String sha256(@NonNull Context context, @NonNull Uri uri) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		try (ParcelFileDescriptor parcelFileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+			 FileInputStream input = new FileInputStream(parcelFileDescriptor.getFileDescriptor())) {
+			FileChannel channel = input.getChannel();
+			long size = channel.size();
+			for (long position = 0; position < size; position += MAP_SIZE) {
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size - position)));
+			}
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @return lowercase hex of the bytes
+	 */
+	@NonNull
+	static String toHex(@NonNull byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * @return the uri the hash was last seen at, null if it is unknown or the file is gone
+	 */
+	@Nullable
+	static synchronized Uri get(@NonNull Context context, @NonNull String hash) {
+		String value = getPreferences(context).getString(hash, null);
+		if (value == null)
+			return null;
+
+		Uri uri = Uri.parse(value.substring(value.indexOf(' ') + 1));
+		//only checks that the file still exists, its content isn't read
+		try (ParcelFileDescriptor ignored = context.getContentResolver().openFileDescriptor(uri, "r")) {
+			return uri;
+		} catch (IOException | RuntimeException e) {
+			getPreferences(context).edit().remove(hash).apply();
+			return null;
+		}
+	}
+
+	/**
+	 * remembers the uri of the hash, the oldest entry is dropped if the index is full
+	 */
+	static synchronized void put(@NonNull Context context, @NonNull String hash, @NonNull Uri uri) {
+		SharedPreferences preferences = getPreferences(context);
+		SharedPreferences.Editor editor = preferences.edit();
+		editor.putString(hash, System.currentTimeMillis() + " " + uri);
+
+		Map<String, ?> entries = preferences.getAll();
+		if (!entries.containsKey(hash) && entries.size() >= MAX_ENTRIES) {
+			String oldest = null;
+			long oldestTime = Long.MAX_VALUE;
+			for (Map.Entry<String, ?> entry : entries.entrySet()) {
+				String value = String.valueOf(entry.getValue());
+				long time = parseTime(value);
+				if (time < oldestTime) {
+					oldestTime = time;
+					oldest = entry.getKey();
+				}
+			}
+			if (oldest != null)
+				editor.remove(oldest);
+		}
+		editor.apply();
+	}
+
+	private static long parseTime(String value) {
+		try {
+			return Long.parseLong(value.substring(0, Math.max(0, value.indexOf(' '))));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static SharedPreferences getPreferences(Context context) {
+		return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+	}
+}
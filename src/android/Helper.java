@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
+import android.os.Debug;
 
 public class Helper {
 	/**
@@ -32,4 +33,13 @@ public class Helper {
 	public static void unlockOrientation(Activity activity) {
 		activity.setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
 	}
+
+	/**
+	 * @return bytes currently allocated on the java and the native heap. Bitmap pixels are
+	 * allocated on the native heap since Android 8
+	 */
+	static long getUsedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+	}
 }
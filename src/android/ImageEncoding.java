@@ -0,0 +1,163 @@
+package org.apache.cordova.mediacapture;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Output encoding of captured images: format, compression quality and max dimensions
+ */
+class ImageEncoding {
+	/**
+	 * quality used when an image has to be re-encoded and no quality was requested
+	 */
+	static final int DEFAULT_QUALITY = 90;
+
+	private static final String EXTRA_FORMAT = "org.apache.cordova.mediacapture.extra.ENCODING_FORMAT";
+	private static final String EXTRA_QUALITY = "org.apache.cordova.mediacapture.extra.ENCODING_QUALITY";
+	private static final String EXTRA_MAX_WIDTH = "org.apache.cordova.mediacapture.extra.MAX_WIDTH";
+	private static final String EXTRA_MAX_HEIGHT = "org.apache.cordova.mediacapture.extra.MAX_HEIGHT";
+
+	enum Format {
+		JPEG("jpeg", FileHelper.IMAGE_JPEG),
+		WEBP("webp", FileHelper.IMAGE_WEBP),
+		HEIF("heif", FileHelper.IMAGE_HEIF);
+
+		final String id;
+		final String mimeType;
+
+		Format(String id, String mimeType) {
+			this.id = id;
+			this.mimeType = mimeType;
+		}
+	}
+
+	final Format format;
+	/**
+	 * 1 - 100, 0 keeps the camera's own jpeg compression
+	 */
+	final int quality;
+	/**
+	 * max width and height of the upright image, 0 = unlimited
+	 */
+	final int maxWidth;
+	final int maxHeight;
+
+	private static Boolean sHeifSupported;
+
+	ImageEncoding(@NonNull Format format, int quality, int maxWidth, int maxHeight) {
+		this.format = format;
+		this.quality = Math.max(0, Math.min(quality, 100));
+		this.maxWidth = Math.max(0, maxWidth);
+		this.maxHeight = Math.max(0, maxHeight);
+	}
+
+	/**
+	 * @return true if the jpeg delivered by the camera can be stored without re-encoding
+	 */
+	boolean keepsCameraJpeg() {
+		return format == Format.JPEG && quality == 0 && maxWidth == 0 && maxHeight == 0;
+	}
+
+	/**
+	 * @return quality to compress with
+	 */
+	int getQuality() {
+		return quality > 0 ? quality : DEFAULT_QUALITY;
+	}
+
+	/**
+	 * @param width  upright width of the image
+	 * @param height upright height of the image
+	 * @return factor to fit the image into the max dimensions, never bigger than 1
+	 */
+	float getScale(int width, int height) {
+		float scale = 1f;
+		if (maxWidth > 0)
+			scale = Math.min(scale, maxWidth / (float) width);
+		if (maxHeight > 0)
+			scale = Math.min(scale, maxHeight / (float) height);
+		return scale;
+	}
+
+	/**
+	 * @return compress format for {@link Bitmap#compress}, HEIF is not supported by it
+	 */
+	@SuppressWarnings("deprecation")
+	@NonNull
+	Bitmap.CompressFormat getCompressFormat() {
+		if (format == Format.WEBP) {
+			return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+					? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+		}
+		return Bitmap.CompressFormat.JPEG;
+	}
+
+	void putExtras(@NonNull Intent intent) {
+		intent.putExtra(EXTRA_FORMAT, format.id);
+		intent.putExtra(EXTRA_QUALITY, quality);
+		intent.putExtra(EXTRA_MAX_WIDTH, maxWidth);
+		intent.putExtra(EXTRA_MAX_HEIGHT, maxHeight);
+	}
+
+	@NonNull
+	static ImageEncoding fromExtras(@NonNull Intent intent) {
+		return new ImageEncoding(
+				resolveFormat(intent.getStringExtra(EXTRA_FORMAT)),
+				intent.getIntExtra(EXTRA_QUALITY, 0),
+				intent.getIntExtra(EXTRA_MAX_WIDTH, 0),
+				intent.getIntExtra(EXTRA_MAX_HEIGHT, 0));
+	}
+
+	/**
+	 * maps the javascript encodingType to a format this device can encode, falls back to jpeg
+	 *
+	 * @param name jpeg, webp or heif
+	 */
+	@NonNull
+	static Format resolveFormat(@Nullable String name) {
+		if (name == null)
+			return Format.JPEG;
+
+		switch (name.toLowerCase(Locale.ROOT)) {
+			case "webp":
+				return Format.WEBP;
+			case "heif":
+			case "heic":
+				return isHeifSupported() ? Format.HEIF : Format.JPEG;
+			default:
+				return Format.JPEG;
+		}
+	}
+
+	/**
+	 * HeifWriter needs Android 9 and a HEIC or HEVC encoder
+	 */
+	static synchronized boolean isHeifSupported() {
+		if (sHeifSupported == null) {
+			sHeifSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+					&& (hasEncoder(MediaFormat.MIMETYPE_IMAGE_ANDROID_HEIC) || hasEncoder(MediaFormat.MIMETYPE_VIDEO_HEVC));
+		}
+		return sHeifSupported;
+	}
+
+	private static boolean hasEncoder(String mimeType) {
+		for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+			if (!info.isEncoder())
+				continue;
+			for (String type : info.getSupportedTypes()) {
+				if (type.equalsIgnoreCase(mimeType))
+					return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,26 @@
+package org.apache.cordova.mediacapture;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hook to inspect or process captured pictures before they are saved, register it with
+ * {@link ImageSaver#setImageProcessor(ImageProcessor)}. It is called on the capture executor.
+ */
+public interface ImageProcessor {
+	/**
+	 * The buffers are read only and only valid during this call, they must not be kept. For
+	 * {@link android.graphics.ImageFormat#JPEG} there is a single plane with the encoded picture.
+	 *
+	 * @param format       {@link android.graphics.ImageFormat} of the picture
+	 * @param width        width in pixels
+	 * @param height       height in pixels
+	 * @param planes       pixel data of each plane, direct buffers if the picture came from an
+	 *                     {@link android.media.Image}
+	 * @param rowStrides   row stride of each plane in bytes
+	 * @param pixelStrides pixel stride of each plane in bytes
+	 */
+	void process(int format, int width, int height, @NonNull ByteBuffer[] planes,
+				 @NonNull int[] rowStrides, @NonNull int[] pixelStrides);
+}
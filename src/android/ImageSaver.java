@@ -1,11 +1,13 @@
 package org.apache.cordova.mediacapture;
 
 import android.annotation.SuppressLint;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.ImageFormat;
 import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
 import android.media.ExifInterface;
 import android.media.Image;
 import android.net.Uri;
@@ -13,12 +15,16 @@ import android.os.ParcelFileDescriptor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.heifwriter.HeifWriter;
 
 import org.apache.cordova.LOG;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -28,6 +34,17 @@ import java.util.TimeZone;
 public class ImageSaver implements Runnable {
 	private final String TAG = ImageSaver.class.getSimpleName();
 
+	/**
+	 * max time to wait for the HEIF encoder to finish
+	 */
+	private static final long HEIF_TIMEOUT_MS = 10000;
+
+	/**
+	 * hook called with the pixel data of every picture before it is saved
+	 */
+	@Nullable
+	private static volatile ImageProcessor sImageProcessor;
+
 	/**
 	 * The image from camera callback
 	 */
@@ -51,20 +68,50 @@ public class ImageSaver implements Runnable {
 	 *
 	 */
 	private float mRotation = 0f;
+	/**
+	 * encoded jpeg as delivered by the camera, written as is if set
+	 */
+	@Nullable
+	private final byte[] mData;
+	/**
+	 * rotation in degrees stored as exif orientation when writing {@link #mData}
+	 */
+	private int mDataRotation = 0;
+	/**
+	 * bounds for the preview decoded from {@link #mData}, 0 skips decoding
+	 */
+	private int mPreviewWidth = 0;
+	private int mPreviewHeight = 0;
+	/**
+	 * pool the preview bitmap is taken from if possible
+	 */
+	@Nullable
+	private BitmapPool mBitmapPool;
+	/**
+	 * only rotates the exif orientation of the already saved image by {@link #mRotation}
+	 */
+	private boolean mRotateExifOnly = false;
+	/**
+	 * output format, quality and max dimensions
+	 */
+	@NonNull
+	private ImageEncoding mEncoding = new ImageEncoding(ImageEncoding.Format.JPEG, 0, 0, 0);
 
 	/**
-	 * saves jpeg from given image to taget uri
+	 * saves the given image to the target uri. Jpeg images are written straight from the plane
+	 * buffer, YUV_420_888 images are compressed to jpeg. The image is closed afterwards.
 	 *
 	 * @param context  activity context
-	 * @param image    image with at least one plane
+	 * @param image    {@link ImageFormat#JPEG} or {@link ImageFormat#YUV_420_888} image
 	 * @param uri      target uri to save the image to
-	 * @param callback calls .success with processed bitmap if images was saved successfully,
+	 * @param callback calls .success with null if the image was saved successfully,
 	 *                 .error if something failed
 	 */
 	ImageSaver(Context context, @NonNull Image image, Uri uri, ImageSaver.Callback callback) {
 		this.mContext = context;
 		this.mImage = image;
 		this.mBitmap = null;
+		this.mData = null;
 		this.mUri = uri;
 		this.mCallback = callback;
 	}
@@ -83,32 +130,111 @@ public class ImageSaver implements Runnable {
 		this.mContext = context;
 		this.mImage = null;
 		this.mBitmap = bitmap;
+		this.mData = null;
 		this.mUri = uri;
 		this.mCallback = callback;
 		this.mRotation = rotation;
 	}
 
 	/**
-	 * rotates a given bitmap and saves it to a give url
+	 * encodes a given upright bitmap and saves it to a give url
 	 *
 	 * @param context  activity context
 	 * @param bitmap   source bitmap
 	 * @param uri      target content-uri
+	 * @param encoding output format, quality and max dimensions
 	 * @param callback calls .success with processed bitmap if images was saved successfully,
 	 *                 *                 .error if something failed
 	 */
-	ImageSaver(Context context, @NonNull Bitmap bitmap, Uri uri, ImageSaver.Callback callback) {
+	ImageSaver(Context context, @NonNull Bitmap bitmap, Uri uri, @NonNull ImageEncoding encoding, ImageSaver.Callback callback) {
 		this.mContext = context;
 		this.mImage = null;
 		this.mBitmap = bitmap;
+		this.mData = null;
 		this.mUri = uri;
+		this.mEncoding = encoding;
 		this.mCallback = callback;
 	}
 
+	/**
+	 * saves the given jpeg to the target uri. If the encoding allows it the jpeg is written without
+	 * decoding it and only exif metadata is patched, otherwise it is decoded at the target size,
+	 * rotated upright and encoded.
+	 *
+	 * @param context       activity context
+	 * @param data          encoded jpeg, e.g. from {@link com.otaliastudios.cameraview.PictureResult#getData()}
+	 * @param rotation      rotation in degrees needed to display the image upright
+	 * @param uri           target content-uri
+	 * @param encoding      output format, quality and max dimensions
+	 * @param previewWidth  max width of the returned preview, the full image is never decoded
+	 * @param previewHeight max height of the returned preview
+	 * @param bitmapPool    pool to reuse a bitmap from for the preview
+	 * @param callback      calls .success with a downsampled preview if the image was saved
+	 *                      successfully, .error if something failed. The preview is only upright
+	 *                      if the image had to be re-encoded, see {@link ImageEncoding#keepsCameraJpeg()}
+	 */
+	ImageSaver(Context context, @NonNull byte[] data, int rotation, Uri uri, @NonNull ImageEncoding encoding,
+			   int previewWidth, int previewHeight, @Nullable BitmapPool bitmapPool, ImageSaver.Callback callback) {
+		this.mContext = context;
+		this.mImage = null;
+		this.mBitmap = null;
+		this.mData = data;
+		this.mDataRotation = rotation;
+		this.mUri = uri;
+		this.mEncoding = encoding;
+		this.mPreviewWidth = previewWidth;
+		this.mPreviewHeight = previewHeight;
+		this.mBitmapPool = bitmapPool;
+		this.mCallback = callback;
+	}
+
+	/**
+	 * rotates an already saved image losslessly by changing its exif orientation. Formats that
+	 * can't be patched are decoded, rotated and encoded again.
+	 *
+	 * @param context  activity context
+	 * @param uri      content-uri of the saved image
+	 * @param rotation rotation in degrees, positive rotates right, negative left
+	 * @param encoding encoding the image was saved with
+	 * @param callback calls .success with null if the orientation was updated,
+	 *                 .error if something failed
+	 */
+	ImageSaver(Context context, Uri uri, int rotation, @NonNull ImageEncoding encoding, ImageSaver.Callback callback) {
+		this.mContext = context;
+		this.mImage = null;
+		this.mBitmap = null;
+		this.mData = null;
+		this.mUri = uri;
+		this.mEncoding = encoding;
+		this.mCallback = callback;
+		this.mRotation = rotation;
+		this.mRotateExifOnly = true;
+	}
+
+	/**
+	 * @param processor hook called with every picture before it is saved, null removes it
+	 */
+	public static void setImageProcessor(@Nullable ImageProcessor processor) {
+		sImageProcessor = processor;
+	}
+
+	/**
+	 * @return the callback the result of this saver is delivered to
+	 */
+	@NonNull
+	ImageSaver.Callback getCallback() {
+		return mCallback;
+	}
+
 	@Override
 	public void run() {
 		try {
-			mCallback.onSuccess(getBitmap());
+			if (mRotateExifOnly)
+				mCallback.onSuccess(mEncoding.format == ImageEncoding.Format.JPEG ? rotateExif() : rotatePixels());
+			else if (mImage != null)
+				mCallback.onSuccess(writeImage(mImage));
+			else
+				mCallback.onSuccess(mData != null ? writeJpeg() : getBitmap());
 		} catch (Exception e) {
 			LOG.e(TAG, "error saving image", e);
 			mCallback.onFailure(e);
@@ -117,24 +243,6 @@ public class ImageSaver implements Runnable {
 
 	@NonNull
 	private Bitmap getBitmap() throws Exception {
-		byte[] data = null;
-
-		//resolve bitmap from image
-		if (mImage != null) {
-			try {
-				Image.Plane[] planes = mImage.getPlanes();
-				ByteBuffer buffer = planes[0].getBuffer();
-				buffer.rewind();
-				data = new byte[buffer.capacity()];
-				buffer.get(data);
-				mBitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
-			} catch (NullPointerException e) {
-				throw new Exception("nullPointer exception writing file");
-			} finally {
-				mImage.close();
-			}
-		}
-
 		//resolve from uri
 		if (mBitmap == null) {
 			try (ParcelFileDescriptor parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(mUri, "rw")) {
@@ -144,47 +252,457 @@ public class ImageSaver implements Runnable {
 			}
 		}
 
-		//rotates by given rotation
-		if (mRotation != 0f) {
-			mBitmap = rotateBitMap(mBitmap, mRotation);
+		//rotates and scales by given rotation and encoding in a single pass
+		mBitmap = transformBitmap(mBitmap, mRotation);
+
+		encode(mBitmap);
+
+		return mBitmap;
+	}
+
+	/**
+	 * encodes the bitmap to the target uri. Jpegs get the orientation tag, so later rotations
+	 * can be patched in place
+	 *
+	 * @param bitmap upright bitmap
+	 */
+	private void encode(@NonNull Bitmap bitmap) throws IOException {
+		if (mEncoding.format == ImageEncoding.Format.HEIF) {
+			writeHeif(bitmap);
+			return;
 		}
 
-		ContentResolver cr = mContext.getContentResolver();
-		//save compressed file
-		try (OutputStream output = mContext.getContentResolver().openOutputStream(mUri)) {
-			if (!mBitmap.compress(Bitmap.CompressFormat.JPEG, 90, output))
+		//compressed jpegs carry no exif, the segment is injected while writing
+		byte[] exif = mEncoding.format == ImageEncoding.Format.JPEG
+				? ExifPatcher.buildSegment(ExifInterface.ORIENTATION_NORMAL, getExifDate()) : null;
+		try (OutputStream output = openOutputStream("wt", exif)) {
+			if (!bitmap.compress(mEncoding.getCompressFormat(), mEncoding.getQuality(), output))
 				throw new IOException("could not compress image");
-			else {
-				//store meta data
-				try (ParcelFileDescriptor parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(mUri, "rw")) {
-					ExifInterface exif = new ExifInterface(parcelFileDescriptor.getFileDescriptor());
-					SimpleDateFormat sdf = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.getDefault());
-					sdf.setTimeZone(TimeZone.getTimeZone("Etc/UTC"));
-					String date = sdf.format(new Date());
-					exif.setAttribute(ExifInterface.TAG_DATETIME, date);
-					exif.saveAttributes();
-				} catch (IOException e) {
-					LOG.e(TAG, "Failed receiving ExIf metadata", e);
-				}
-			}
 		} catch (Exception e) {
 			throw new IOException("could not create image");
 		}
+	}
 
-		return mBitmap;
+	/**
+	 * @param mode content resolver write mode
+	 * @param exif exif segment injected after the SOI marker, null writes the stream unchanged
+	 */
+	@NonNull
+	private OutputStream openOutputStream(@NonNull String mode, @Nullable byte[] exif) throws IOException {
+		OutputStream output = mContext.getContentResolver().openOutputStream(mUri, mode);
+		if (output == null)
+			throw new IOException("could not open " + mUri);
+		return exif != null ? new ExifPatcher.InjectingOutputStream(output, exif) : output;
+	}
+
+	/**
+	 * {@link Bitmap#compress} can't write HEIF, it is encoded by the hardware HEVC encoder instead
+	 */
+	@SuppressLint("NewApi") //HEIF is only selected if supported, see ImageEncoding.isHeifSupported()
+	private void writeHeif(@NonNull Bitmap bitmap) throws IOException {
+		try (ParcelFileDescriptor parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(mUri, "rwt")) {
+			HeifWriter writer = new HeifWriter.Builder(parcelFileDescriptor.getFileDescriptor(),
+					bitmap.getWidth(), bitmap.getHeight(), HeifWriter.INPUT_MODE_BITMAP)
+					.setQuality(mEncoding.getQuality())
+					.build();
+			try {
+				writer.start();
+				writer.addBitmap(bitmap);
+				writer.stop(HEIF_TIMEOUT_MS);
+			} catch (Exception e) {
+				throw new IOException("could not encode heif", e);
+			} finally {
+				writer.close();
+			}
+		}
 	}
 
 	/**
-	 * rotates image a given degree
+	 * rotates the bitmap and scales it to the encoding's max dimensions with a single allocation
 	 *
-	 * @param bitmap  source bitmap
-	 * @param degrees positive integer in degrees rotates right, negative left
+	 * @param bitmap  source bitmap, recycled if a new one was created unless it was passed in
+	 * @param degrees rotation, positive rotates right
+	 * @return the transformed bitmap, or the source if nothing had to change
 	 */
 	@NonNull
-	Bitmap rotateBitMap(Bitmap bitmap, float degrees) {
+	private Bitmap transformBitmap(@NonNull Bitmap bitmap, float degrees) {
+		boolean swapped = ((int) degrees) % 180 != 0;
+		float scale = mEncoding.getScale(
+				swapped ? bitmap.getHeight() : bitmap.getWidth(),
+				swapped ? bitmap.getWidth() : bitmap.getHeight());
+		if (degrees == 0f && scale >= 1f)
+			return bitmap;
+
 		Matrix matrix = new Matrix();
 		matrix.preRotate(degrees);
-		return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+		if (scale < 1f)
+			matrix.postScale(scale, scale);
+
+		Bitmap transformed = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+		if (transformed != bitmap && bitmap != mBitmap)
+			bitmap.recycle();
+		return transformed;
+	}
+
+	/**
+	 * hands the camera jpeg to the {@link ImageProcessor}, the buffer wraps {@link #mData}
+	 * without copying it
+	 */
+	private void process(@NonNull ByteBuffer jpeg) {
+		ImageProcessor processor = sImageProcessor;
+		if (processor == null)
+			return;
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(mData, 0, mData.length, options);
+		processor.process(ImageFormat.JPEG, options.outWidth, options.outHeight,
+				new ByteBuffer[]{jpeg.asReadOnlyBuffer()}, new int[]{0}, new int[]{1});
+	}
+
+	/**
+	 * decodes the camera jpeg subsampled close to the target size, then rotates and scales it in
+	 * a single pass and encodes it
+	 *
+	 * @return preview of the encoded image
+	 */
+	@NonNull
+	private Bitmap reencode() throws Exception {
+		process(ByteBuffer.wrap(mData));
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(mData, 0, mData.length, options);
+
+		boolean swapped = mDataRotation % 180 != 0;
+		int width = swapped ? options.outHeight : options.outWidth;
+		int height = swapped ? options.outWidth : options.outHeight;
+		float scale = mEncoding.getScale(width, height);
+
+		options.inSampleSize = calculateInSampleSize(width, height,
+				Math.round(width * scale), Math.round(height * scale));
+		options.inJustDecodeBounds = false;
+		Bitmap decoded = BitmapFactory.decodeByteArray(mData, 0, mData.length, options);
+		if (decoded == null)
+			throw new IOException("could not decode image");
+
+		Bitmap bitmap = transformBitmap(decoded, mDataRotation);
+		encode(bitmap);
+
+		return toPreview(bitmap);
+	}
+
+	/**
+	 * @param bitmap bitmap that is no longer needed at full size, recycled if scaled down
+	 * @return bitmap fitting the preview bounds
+	 */
+	@NonNull
+	private Bitmap toPreview(@NonNull Bitmap bitmap) {
+		if (mPreviewWidth <= 0 || mPreviewHeight <= 0)
+			return bitmap;
+
+		float scale = Math.min(mPreviewWidth / (float) bitmap.getWidth(), mPreviewHeight / (float) bitmap.getHeight());
+		if (scale >= 1f)
+			return bitmap;
+
+		Bitmap preview = Bitmap.createScaledBitmap(bitmap,
+				Math.round(bitmap.getWidth() * scale), Math.round(bitmap.getHeight() * scale), true);
+		if (preview != bitmap)
+			bitmap.recycle();
+		return preview;
+	}
+
+	/**
+	 * rotates formats that have no patchable exif orientation by decoding and encoding them again
+	 *
+	 * @return always null, the preview is rotated by the caller
+	 */
+	@Nullable
+	private Bitmap rotatePixels() throws Exception {
+		Bitmap bitmap;
+		try (ParcelFileDescriptor parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(mUri, "r")) {
+			bitmap = BitmapFactory.decodeFileDescriptor(parcelFileDescriptor.getFileDescriptor());
+		}
+		if (bitmap == null)
+			throw new IOException("could not decode image");
+
+		Bitmap rotated = transformBitmap(bitmap, mRotation);
+		encode(rotated);
+		rotated.recycle();
+
+		return null;
+	}
+
+	/**
+	 * adds {@link #mRotation} to the exif orientation of the saved image. The tag value is patched
+	 * in place if present, no pixel data is read or written.
+	 *
+	 * @return always null, there is no decoded bitmap in this mode
+	 */
+	@Nullable
+	private Bitmap rotateExif() throws Exception {
+		try (ParcelFileDescriptor parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(mUri, "rw")) {
+			FileDescriptor fd = parcelFileDescriptor.getFileDescriptor();
+			ByteBuffer header = ExifPatcher.readHeader(fd);
+			ExifPatcher.Entry entry = ExifPatcher.findEntry(header, ExifPatcher.TAG_ORIENTATION);
+
+			if (entry != null && entry.type == ExifPatcher.TYPE_SHORT) {
+				int degrees = exifToDegrees(ExifPatcher.getShort(header, entry)) + (int) mRotation;
+				ExifPatcher.putShort(fd, entry, degreesToExif(degrees));
+			} else {
+				//no tag to patch, let ExifInterface add it
+				ExifInterface exif = new ExifInterface(fd);
+				int degrees = exifToDegrees(exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+						ExifInterface.ORIENTATION_NORMAL)) + (int) mRotation;
+				exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(degreesToExif(degrees)));
+				exif.saveAttributes();
+			}
+		} catch (IOException e) {
+			throw new IOException("could not rotate image", e);
+		}
+
+		return null;
+	}
+
+	/**
+	 * hands the planes to the {@link ImageProcessor} and saves the image without copying the
+	 * plane buffers to the heap or decoding them
+	 *
+	 * @return always null, there is no decoded bitmap in this mode
+	 */
+	@Nullable
+	private Bitmap writeImage(@NonNull Image image) throws Exception {
+		try {
+			Image.Plane[] planes = image.getPlanes();
+			ImageProcessor processor = sImageProcessor;
+			if (processor != null) {
+				ByteBuffer[] buffers = new ByteBuffer[planes.length];
+				int[] rowStrides = new int[planes.length];
+				int[] pixelStrides = new int[planes.length];
+				for (int i = 0; i < planes.length; i++) {
+					buffers[i] = planes[i].getBuffer().asReadOnlyBuffer();
+					rowStrides[i] = planes[i].getRowStride();
+					pixelStrides[i] = planes[i].getPixelStride();
+				}
+				processor.process(image.getFormat(), image.getWidth(), image.getHeight(), buffers, rowStrides, pixelStrides);
+			}
+
+			switch (image.getFormat()) {
+				case ImageFormat.JPEG:
+					writeJpegBuffer(planes[0].getBuffer().slice());
+					break;
+				case ImageFormat.YUV_420_888:
+					writeYuv(image);
+					break;
+				default:
+					throw new IOException("unsupported image format " + image.getFormat());
+			}
+		} finally {
+			image.close();
+		}
+		return null;
+	}
+
+	/**
+	 * writes an encoded jpeg buffer with a single gathering write. If the jpeg has no exif
+	 * segment one is written between SOI and the rest of the buffer.
+	 *
+	 * @param jpeg encoded jpeg starting at position 0
+	 */
+	private void writeJpegBuffer(@NonNull ByteBuffer jpeg) throws IOException {
+		ByteBuffer[] chunks;
+		if (ExifPatcher.hasExif(jpeg)) {
+			chunks = new ByteBuffer[]{jpeg};
+		} else {
+			ByteBuffer soi = jpeg.duplicate();
+			soi.limit(2);
+			ByteBuffer rest = jpeg.duplicate();
+			rest.position(2);
+			chunks = new ByteBuffer[]{soi,
+					ByteBuffer.wrap(ExifPatcher.buildSegment(ExifInterface.ORIENTATION_NORMAL, getExifDate())), rest};
+		}
+
+		long remaining = 0;
+		for (ByteBuffer chunk : chunks) {
+			remaining += chunk.remaining();
+		}
+
+		try (ParcelFileDescriptor parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(mUri, "wt");
+			 FileChannel channel = new FileOutputStream(parcelFileDescriptor.getFileDescriptor()).getChannel()) {
+			while (remaining > 0) {
+				remaining -= channel.write(chunks);
+			}
+		}
+	}
+
+	/**
+	 * compresses a YUV_420_888 image to jpeg. {@link YuvImage} needs the pixels as NV21 array,
+	 * this is the only copy made.
+	 */
+	private void writeYuv(@NonNull Image image) throws IOException {
+		YuvImage yuv = new YuvImage(toNv21(image), ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
+		byte[] exif = ExifPatcher.buildSegment(ExifInterface.ORIENTATION_NORMAL, getExifDate());
+		try (OutputStream output = openOutputStream("wt", exif)) {
+			if (!yuv.compressToJpeg(new Rect(0, 0, image.getWidth(), image.getHeight()), mEncoding.getQuality(), output))
+				throw new IOException("could not compress image");
+		}
+	}
+
+	/**
+	 * interleaves the planes of a YUV_420_888 image to NV21, honoring row and pixel strides
+	 */
+	@NonNull
+	private static byte[] toNv21(@NonNull Image image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Image.Plane[] planes = image.getPlanes();
+		byte[] nv21 = new byte[width * height * 3 / 2];
+
+		ByteBuffer y = planes[0].getBuffer();
+		int yRowStride = planes[0].getRowStride();
+		int yPixelStride = planes[0].getPixelStride();
+		int offset = 0;
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				nv21[offset++] = y.get(row * yRowStride + col * yPixelStride);
+			}
+		}
+
+		ByteBuffer u = planes[1].getBuffer();
+		ByteBuffer v = planes[2].getBuffer();
+		int uvRowStride = planes[1].getRowStride();
+		int uvPixelStride = planes[1].getPixelStride();
+		for (int row = 0; row < height / 2; row++) {
+			for (int col = 0; col < width / 2; col++) {
+				int index = row * uvRowStride + col * uvPixelStride;
+				nv21[offset++] = v.get(index);
+				nv21[offset++] = u.get(index);
+			}
+		}
+		return nv21;
+	}
+
+	/**
+	 * streams the encoded jpeg to the target uri, skipping decode and re-compression if the
+	 * encoding allows it. Orientation and date are patched into the camera's exif segment before
+	 * writing, or a new segment is injected if there is none, so the file is written only once.
+	 *
+	 * @return downsampled preview or null if no preview size was given
+	 */
+	@Nullable
+	private Bitmap writeJpeg() throws Exception {
+		if (!mEncoding.keepsCameraJpeg())
+			return reencode();
+
+		int orientation = degreesToExif(mDataRotation);
+		String date = getExifDate();
+		ByteBuffer jpeg = ByteBuffer.wrap(mData);
+		process(jpeg);
+		boolean patched = ExifPatcher.patch(jpeg, orientation, date);
+		boolean hasExif = patched || ExifPatcher.hasExif(jpeg);
+
+		try (OutputStream output = openOutputStream("wt", hasExif ? null : ExifPatcher.buildSegment(orientation, date))) {
+			output.write(mData);
+		} catch (Exception e) {
+			throw new IOException("could not create image");
+		}
+
+		//exif segment without the tags, let ExifInterface add them
+		if (!patched && hasExif)
+			writeExif(orientation);
+
+		if (mPreviewWidth <= 0 || mPreviewHeight <= 0)
+			return null;
+		return decodeSampled(mData, mPreviewWidth, mPreviewHeight, mBitmapPool);
+	}
+
+	/**
+	 * decodes an encoded image with the largest power of two subsampling that still covers
+	 * the requested bounds
+	 *
+	 * @param data      encoded image
+	 * @param reqWidth  target width
+	 * @param reqHeight target height
+	 * @param pool      pool to reuse a bitmap from, may be null
+	 * @return decoded bitmap, not rotated
+	 */
+	@NonNull
+	static Bitmap decodeSampled(@NonNull byte[] data, int reqWidth, int reqHeight, @Nullable BitmapPool pool) throws IOException {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+		options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+		options.inJustDecodeBounds = false;
+		options.inMutable = true;
+		if (pool != null) {
+			options.inBitmap = pool.get(
+					(int) Math.ceil(options.outWidth / (double) options.inSampleSize),
+					(int) Math.ceil(options.outHeight / (double) options.inSampleSize),
+					Bitmap.Config.ARGB_8888);
+		}
+
+		Bitmap bitmap;
+		try {
+			bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		} catch (IllegalArgumentException e) {
+			//pooled bitmap could not be reused
+			LOG.w(ImageSaver.class.getSimpleName(), "could not reuse bitmap", e);
+			pool.put(options.inBitmap);
+			options.inBitmap = null;
+			bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		}
+		if (bitmap == null)
+			throw new IOException("could not decode preview");
+		return bitmap;
+	}
+
+	/**
+	 * the image may be rotated for display, so long and short sides are compared
+	 *
+	 * @return power of two sample size
+	 */
+	static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+		int inSampleSize = 1;
+		if (reqWidth <= 0 || reqHeight <= 0)
+			return inSampleSize;
+
+		int longSide = Math.max(width, height);
+		int shortSide = Math.min(width, height);
+		int reqLongSide = Math.max(reqWidth, reqHeight);
+		int reqShortSide = Math.min(reqWidth, reqHeight);
+		while (longSide / (inSampleSize * 2) >= reqLongSide && shortSide / (inSampleSize * 2) >= reqShortSide) {
+			inSampleSize *= 2;
+		}
+		return inSampleSize;
+	}
+
+	/**
+	 * stores capture date and optionally orientation in the exif header of the saved file. This
+	 * rewrites the whole file, it is only the fallback if the tags can't be patched before writing.
+	 *
+	 * @param orientation exif orientation to set, null keeps the current one
+	 */
+	private void writeExif(@Nullable Integer orientation) {
+		try (ParcelFileDescriptor parcelFileDescriptor = mContext.getContentResolver().openFileDescriptor(mUri, "rw")) {
+			ExifInterface exif = new ExifInterface(parcelFileDescriptor.getFileDescriptor());
+			exif.setAttribute(ExifInterface.TAG_DATETIME, getExifDate());
+			if (orientation != null) {
+				exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientation));
+			}
+			exif.saveAttributes();
+		} catch (IOException e) {
+			LOG.e(TAG, "Failed receiving ExIf metadata", e);
+		}
+	}
+
+	/**
+	 * @return current date in exif format, always 19 characters
+	 */
+	private static String getExifDate() {
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US);
+		sdf.setTimeZone(TimeZone.getTimeZone("Etc/UTC"));
+		return sdf.format(new Date());
 	}
 
 	/**
@@ -204,8 +722,30 @@ public class ImageSaver implements Runnable {
 		return 0;
 	}
 
+	/**
+	 * maps degrees to exif orientation
+	 *
+	 * @param degrees rotation in degrees, any multiple of 90
+	 * @return exif orientation
+	 */
+	private int degreesToExif(int degrees) {
+		switch (((degrees % 360) + 360) % 360) {
+			case 90:
+				return ExifInterface.ORIENTATION_ROTATE_90;
+			case 180:
+				return ExifInterface.ORIENTATION_ROTATE_180;
+			case 270:
+				return ExifInterface.ORIENTATION_ROTATE_270;
+			default:
+				return ExifInterface.ORIENTATION_NORMAL;
+		}
+	}
+
 	public interface Callback {
-		void onSuccess(@NonNull final Bitmap bitmap);
+		/**
+		 * @param bitmap the processed bitmap or null if the image was written without decoding
+		 */
+		void onSuccess(@Nullable final Bitmap bitmap);
 
 		void onFailure(Throwable t);
 	}
@@ -0,0 +1,145 @@
+package org.apache.cordova.mediacapture;
+
+import static org.apache.cordova.mediacapture.FileHelper.AUDIO_3GPP;
+import static org.apache.cordova.mediacapture.FileHelper.VIDEO_3GPP;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaResourceApi;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.LOG;
+import org.apache.cordova.file.FileUtils;
+import org.apache.cordova.file.LocalFilesystemURL;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the MediaFile JSON of captured media. The File plugin is looked up once, without it
+ * the JSON is built from the media store row of the uri.
+ */
+class MediaFileResolver {
+	private static final String TAG = MediaFileResolver.class.getSimpleName();
+
+	private final CordovaResourceApi mResourceApi;
+	@Nullable
+	private final FileUtils mFilePlugin;
+
+	MediaFileResolver(@NonNull CordovaWebView webView) {
+		this.mResourceApi = webView.getResourceApi();
+		CordovaPlugin plugin = webView.getPluginManager().getPlugin("File");
+		this.mFilePlugin = plugin instanceof FileUtils ? (FileUtils) plugin : null;
+		if (mFilePlugin == null) {
+			LOG.w(TAG, "File plugin not available, media files won't have a localURL");
+		}
+	}
+
+	/**
+	 * @param context context for content resolver queries
+	 * @param uri     content or file uri of the captured media
+	 * @return the MediaFile JSON or null if the uri could not be resolved
+	 */
+	@Nullable
+	JSONObject resolve(@NonNull Context context, @NonNull Uri uri) {
+		//scratch files have no media store row
+		if (mFilePlugin != null || isFile(uri)) {
+			File fp = mResourceApi.mapUriToFile(uri);
+			if (fp != null) {
+				try {
+					return fromFile(context, uri, fp);
+				} catch (JSONException e) {
+					LOG.e(TAG, "Error creating media file from " + fp, e);
+				}
+			}
+		}
+
+		//the uri points to a single media store row
+		try {
+			return FileHelper.queryContentProvider(context, uri, 1);
+		} catch (Exception e) {
+			LOG.e(TAG, "Error: no mediaFile created from " + uri, e);
+			return null;
+		}
+	}
+
+	/**
+	 * resolves many media store uris with a single query instead of one per uri
+	 *
+	 * @param context context for content resolver queries
+	 * @param uris    content uris of the captured media, or file uris of scratch files
+	 * @return the MediaFile JSON of each uri, null for uris that could not be resolved
+	 */
+	@NonNull
+	List<JSONObject> resolveAll(@NonNull Context context, @NonNull List<Uri> uris) {
+		List<Uri> contentUris = new ArrayList<>(uris.size());
+		for (Uri uri : uris) {
+			if (!isFile(uri)) {
+				contentUris.add(uri);
+			}
+		}
+		Map<Uri, JSONObject> rows = contentUris.isEmpty() ? Collections.emptyMap()
+				: FileHelper.queryContentProvider(context, contentUris);
+
+		List<JSONObject> mediaFiles = new ArrayList<>(uris.size());
+		for (Uri uri : uris) {
+			if (isFile(uri)) {
+				mediaFiles.add(resolve(context, uri));
+				continue;
+			}
+
+			JSONObject row = rows.get(uri);
+			JSONObject mediaFile = row;
+			//the row has the file path, the file JSON can be built without further queries
+			String path = row != null ? row.optString("fullPath", null) : null;
+			if (mFilePlugin != null && path != null && path.startsWith("/")) {
+				try {
+					mediaFile = fromFile(context, uri, new File(path));
+				} catch (JSONException e) {
+					LOG.e(TAG, "Error creating media file from " + path, e);
+				}
+			}
+			mediaFiles.add(mediaFile);
+		}
+		return mediaFiles;
+	}
+
+	private static boolean isFile(Uri uri) {
+		return "file".equals(uri.getScheme());
+	}
+
+	@NonNull
+	private JSONObject fromFile(Context context, Uri uri, File fp) throws JSONException {
+		JSONObject obj = new JSONObject();
+		LocalFilesystemURL url = mFilePlugin != null ? mFilePlugin.filesystemURLforLocalPath(fp.getAbsolutePath()) : null;
+
+		// File properties
+		obj.put("name", fp.getName());
+		obj.put("fullPath", Uri.fromFile(fp));
+		if (url != null) {
+			obj.put("localURL", url.toString());
+		}
+		// Because of an issue with MimeTypeMap.getMimeTypeFromExtension() all .3gpp files
+		// are reported as video/3gpp. I'm doing this hacky check of the URI to see if it
+		// is stored in the audio or video content store.
+		String path = fp.getAbsolutePath();
+		if (path.endsWith(".3gp") || path.endsWith(".3gpp")) {
+			obj.put("type", uri.toString().contains("/audio/") ? AUDIO_3GPP : VIDEO_3GPP);
+		} else {
+			obj.put("type", FileHelper.getMimeType(Uri.fromFile(fp), context));
+		}
+
+		obj.put("lastModifiedDate", fp.lastModified());
+		obj.put("size", fp.length());
+		return obj;
+	}
+}
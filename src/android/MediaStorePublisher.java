@@ -0,0 +1,155 @@
+package org.apache.cordova.mediacapture;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+
+import org.apache.cordova.LOG;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Publishes the scratch files of deferred captures to the media store. The entries of a request
+ * are inserted with a single batch and stay pending, hidden from other apps, until their content
+ * is copied. A second batch then makes them visible.
+ */
+class MediaStorePublisher {
+	private static final String TAG = MediaStorePublisher.class.getSimpleName();
+
+	private MediaStorePublisher() {
+	}
+
+	/**
+	 * @param context   context for the content resolver
+	 * @param files     scratch files, deleted once they are published
+	 * @param mimeTypes mime type of each file
+	 * @return the content uri of each file, null for files that could not be published
+	 */
+	@NonNull
+	static List<Uri> publish(@NonNull Context context, @NonNull List<File> files, @NonNull List<String> mimeTypes) {
+		List<Uri> uris = new ArrayList<>(Collections.nCopies(files.size(), null));
+		ContentResolver contentResolver = context.getContentResolver();
+		boolean pending = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+
+		ArrayList<ContentProviderOperation> inserts = new ArrayList<>(files.size());
+		for (int i = 0; i < files.size(); i++) {
+			inserts.add(ContentProviderOperation.newInsert(getCollection(mimeTypes.get(i)))
+					.withValues(createValues(files.get(i), mimeTypes.get(i), pending))
+					.build());
+		}
+
+		ContentProviderResult[] inserted;
+		try {
+			inserted = contentResolver.applyBatch(MediaStore.AUTHORITY, inserts);
+		} catch (OperationApplicationException | RemoteException e) {
+			LOG.e(TAG, "Error inserting media store entries", e);
+			return uris;
+		}
+
+		List<Uri> copied = new ArrayList<>(Collections.nCopies(files.size(), null));
+		ArrayList<ContentProviderOperation> updates = new ArrayList<>(files.size());
+		for (int i = 0; i < files.size(); i++) {
+			Uri uri = inserted[i].uri;
+			if (uri == null)
+				continue;
+
+			if (copy(contentResolver, files.get(i), uri, "w")) {
+				copied.set(i, uri);
+				if (pending) {
+					updates.add(ContentProviderOperation.newUpdate(uri)
+							.withValue(MediaStore.MediaColumns.IS_PENDING, 0)
+							.build());
+				}
+			} else {
+				updates.add(ContentProviderOperation.newDelete(uri).build());
+			}
+		}
+
+		if (!updates.isEmpty()) {
+			try {
+				contentResolver.applyBatch(MediaStore.AUTHORITY, updates);
+			} catch (OperationApplicationException | RemoteException e) {
+				//the entries are still pending, the scratch files are kept
+				LOG.e(TAG, "Error publishing media store entries", e);
+				return uris;
+			}
+		}
+
+		for (int i = 0; i < files.size(); i++) {
+			if (copied.get(i) == null)
+				continue;
+			uris.set(i, copied.get(i));
+			if (!files.get(i).delete()) {
+				LOG.w(TAG, "could not delete scratch file " + files.get(i));
+			}
+		}
+		return uris;
+	}
+
+	private static Uri getCollection(String mimeType) {
+		boolean external = FileHelper.isExternalContentStore();
+		if (mimeType != null && mimeType.startsWith("video/")) {
+			return external ? MediaStore.Video.Media.EXTERNAL_CONTENT_URI : MediaStore.Video.Media.INTERNAL_CONTENT_URI;
+		} else if (mimeType != null && mimeType.startsWith("audio/")) {
+			return external ? MediaStore.Audio.Media.EXTERNAL_CONTENT_URI : MediaStore.Audio.Media.INTERNAL_CONTENT_URI;
+		}
+		return external ? MediaStore.Images.Media.EXTERNAL_CONTENT_URI : MediaStore.Images.Media.INTERNAL_CONTENT_URI;
+	}
+
+	private static ContentValues createValues(File file, String mimeType, boolean pending) {
+		ContentValues cv = new ContentValues();
+		cv.put(MediaStore.MediaColumns.DISPLAY_NAME, file.getName());
+		cv.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
+		if (pending) {
+			cv.put(MediaStore.MediaColumns.IS_PENDING, 1);
+		}
+		//same as FileHelper.getAndCreateFile, old versions need a path for audio
+		if (mimeType != null && mimeType.startsWith("audio/") && Build.VERSION.SDK_INT <= Build.VERSION_CODES.P) {
+			cv.put(MediaStore.MediaColumns.DATA, new File(
+					Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MUSIC),
+					file.getName()).getAbsolutePath());
+		}
+		return cv;
+	}
+
+	/**
+	 * copies the file in the kernel where possible, no buffers on the java heap
+	 *
+	 * @param mode open mode of the target, "wt" to replace existing content
+	 */
+	static boolean copy(@NonNull ContentResolver contentResolver, @NonNull File file, @NonNull Uri uri, @NonNull String mode) {
+		try (FileInputStream input = new FileInputStream(file);
+			 ParcelFileDescriptor parcelFileDescriptor = contentResolver.openFileDescriptor(uri, mode);
+			 FileOutputStream output = new FileOutputStream(parcelFileDescriptor.getFileDescriptor())) {
+			FileChannel source = input.getChannel();
+			FileChannel target = output.getChannel();
+			long size = source.size();
+			long position = 0;
+			while (position < size) {
+				position += source.transferTo(position, size - position, target);
+			}
+			return true;
+		} catch (IOException | RuntimeException e) {
+			LOG.e(TAG, "Error copying " + file + " to " + uri, e);
+			return false;
+		}
+	}
+}
@@ -29,6 +29,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Holds the pending javascript requests for the plugin
  */
@@ -111,6 +115,129 @@ public class PendingRequests {
 	}
 
 
+	/**
+	 * Registers a captured media file that is post-processed before it is added to the results
+	 *
+	 * @param req    The request the media file was captured for
+	 * @param stages The post-processing stages the media file passes
+	 * @return The index of the media file in the results
+	 */
+	public synchronized int startProcessing(Request req, Collection<String> stages) {
+		int index = req.captured++;
+		req.processing.put(index, new HashSet<>(stages));
+		return index;
+	}
+
+	/**
+	 * Marks a post-processing stage of a media file as done. Once all its stages are done the
+	 * media file is added to the results.
+	 *
+	 * @param req       The request the media file was captured for
+	 * @param index     The index returned by startProcessing()
+	 * @param stage     The stage that is done, null if the media file had none
+	 * @param mediaFile The media file JSON
+	 * @return true if the request is finished and this was the last media file being processed,
+	 * it can be resolved now
+	 */
+	public synchronized boolean completeStage(Request req, int index, String stage, JSONObject mediaFile) {
+		Set<String> stages = req.processing.get(index);
+		// the request was resolved with a failure in the meantime
+		if (stages == null || requests.get(req.requestCode) != req) {
+			return false;
+		}
+
+		stages.remove(stage);
+		if (!stages.isEmpty()) {
+			return false;
+		}
+		req.processing.remove(index);
+		addResult(req, index, mediaFile);
+		return req.finished && req.processing.size() == 0;
+	}
+
+	/**
+	 * Rejects the request of a media file that could not be post-processed, unless it was
+	 * resolved already
+	 *
+	 * @param req   The request the media file was captured for
+	 * @param index The index returned by startProcessing()
+	 * @param error The error to be returned to the CallbackContext
+	 */
+	public synchronized void failProcessing(Request req, int index, JSONObject error) {
+		req.processing.remove(index);
+		if (requests.get(req.requestCode) == req) {
+			resolveWithFailure(req, error);
+		}
+	}
+
+	/**
+	 * Marks the request as finished, no more media files will be captured for it
+	 *
+	 * @param req The request
+	 * @return true if no media file is being processed, the request can be resolved now.
+	 * Otherwise completeStage() returns true for the last one.
+	 */
+	public synchronized boolean finish(Request req) {
+		req.finished = true;
+		return req.processing.size() == 0;
+	}
+
+	/**
+	 * Sends the progress of a post-processing stage to requests that asked for it, the callback is kept
+	 *
+	 * @param req      The request the media file was captured for
+	 * @param index    The index returned by startProcessing()
+	 * @param stage    The stage that reports its progress
+	 * @param progress The progress of the stage, 0 to 1
+	 */
+	public synchronized void sendProgress(Request req, int index, String stage, float progress) {
+		if (!req.progress || requests.get(req.requestCode) != req) {
+			return;
+		}
+
+		JSONObject obj = new JSONObject();
+		try {
+			JSONObject value = new JSONObject();
+			value.put("index", index);
+			value.put("stage", stage);
+			value.put("progress", progress);
+			obj.put("progress", value);
+		} catch (JSONException e) {
+			// This will never happen
+		}
+		PluginResult result = new PluginResult(PluginResult.Status.OK, obj);
+		result.setKeepCallback(true);
+		req.callbackContext.sendPluginResult(result);
+	}
+
+	/**
+	 * Adds a media file to the results of the request. Progressive requests get it sent to the
+	 * CallbackContext right away, the callback is kept for the next file and the final result.
+	 *
+	 * @param req       The request the media file was captured for
+	 * @param index     The position of the media file in the results
+	 * @param mediaFile The media file JSON
+	 */
+	private void addResult(Request req, int index, JSONObject mediaFile) {
+		try {
+			req.results.put(index, mediaFile);
+		} catch (JSONException e) {
+			// This will never happen
+		}
+
+		if (req.progressive) {
+			JSONObject item = new JSONObject();
+			try {
+				item.put("item", mediaFile);
+			} catch (JSONException e) {
+				// This will never happen
+			}
+			PluginResult result = new PluginResult(PluginResult.Status.OK, item);
+			result.setKeepCallback(true);
+			req.callbackContext.sendPluginResult(result);
+		}
+	}
+
 	/**
 	 * Each request gets a unique ID that represents its request code when calls are made to
 	 * Activities and for permission requests
@@ -169,7 +296,29 @@ public class PendingRequests {
 		private static final String LIMIT_KEY = "limit";
 		private static final String DURATION_KEY = "duration";
 		private static final String QUALITY_KEY = "quality";
+		private static final String USE_INTERNAL_CAMERA_APP_KEY = "useInternalCameraApp";
 		private static final String RESULTS_KEY = "results";
+		private static final String ENCODING_TYPE_KEY = "encodingType";
+		private static final String ENCODING_QUALITY_KEY = "encodingQuality";
+		private static final String MAX_WIDTH_KEY = "maxWidth";
+		private static final String MAX_HEIGHT_KEY = "maxHeight";
+		private static final String BURST_KEY = "burst";
+		private static final String THUMBNAIL_KEY = "thumbnail";
+		private static final String PROGRESSIVE_KEY = "progressive";
+		private static final String PROGRESS_KEY = "progress";
+		private static final String STORAGE_KEY = "storage";
+		private static final String FORMAT_DATA_KEY = "formatData";
+		private static final String HASH_KEY = "hash";
+		private static final String MAX_RESOLUTION_KEY = "maxResolution";
+		private static final String VIDEO_BITRATE_KEY = "videoBitrate";
+		private static final String AUDIO_BITRATE_KEY = "audioBitrate";
+		private static final String FRAME_RATE_KEY = "frameRate";
+		private static final String VIDEO_CODEC_KEY = "videoCodec";
+		private static final String SEGMENT_DURATION_KEY = "segmentDuration";
+		private static final String SEGMENT_SIZE_KEY = "segmentSize";
+		private static final String TRANSCODE_CODEC_KEY = "transcodeCodec";
+		private static final String TRANSCODE_BITRATE_KEY = "transcodeBitrate";
+		private static final String TRANSCODE_MAX_SIZE_KEY = "transcodeMaxSize";
 
 		// Unique int used to identify this request in any Android Permission or Activity callbacks
 		public int requestCode;
@@ -192,9 +341,75 @@ public class PendingRequests {
 		// Confirm capture of image
 		public boolean confirmCapture = true;
 
+		// Output format of images: jpeg, webp or heif (CAPTURE_IMAGE only)
+		public String encodingType = "jpeg";
+
+		// Compression quality 1 - 100 of images, 0 keeps the camera's jpeg (CAPTURE_IMAGE only)
+		public int encodingQuality = 0;
+
+		// Max dimensions of images in pixels, 0 = unlimited (CAPTURE_IMAGE only)
+		public int maxWidth = 0;
+		public int maxHeight = 0;
+
+		// Take all pictures back to back without review (CAPTURE_IMAGE with internal camera only)
+		public boolean burst = false;
+
+		// Max width and height of a thumbnail returned with each file, 0 = none (CAPTURE_IMAGE, CAPTURE_VIDEO)
+		public int thumbnail = 0;
+
+		// Send each media file as soon as it is captured, before the final result
+		public boolean progressive = false;
+
+		// Send the progress of long running post-processing stages, before the final result
+		public boolean progress = false;
+
+		// Where the captures are written: gallery, deferred to publish them to the gallery once the request resolves, or private
+		public String storage = FileHelper.STORAGE_GALLERY;
+
+		// Return the MediaFileData of each file as formatData
+		public boolean formatData = false;
+
+		// Content hash returned with each file, sha256 or empty for none
+		public String hash = "";
+
+		// Max width and height of recordings in pixels, 0 = unlimited (CAPTURE_VIDEO with internal camera only)
+		public int maxResolution = 0;
+
+		// Video and audio bitrate of recordings in bits per second, 0 = camera default (CAPTURE_VIDEO with internal camera only)
+		public int videoBitrate = 0;
+		public int audioBitrate = 0;
+
+		// Frame rate of recordings, 0 = camera default (CAPTURE_VIDEO with internal camera only)
+		public int frameRate = 0;
+
+		// Codec of recordings, h264 or empty for the device default (CAPTURE_VIDEO with internal camera only)
+		public String videoCodec = "";
+
+		// Roll over to a new file every N seconds or N MB while recording, 0 = one file (CAPTURE_VIDEO with internal camera only)
+		public int segmentDuration = 0;
+		public int segmentSize = 0;
+
+		// Codec videos are re-encoded to after capture, h264 or hevc, empty for none (CAPTURE_VIDEO only)
+		public String transcodeCodec = "";
+
+		// Target bitrate of re-encoded videos in bits per second, 0 = picked by size (CAPTURE_VIDEO only)
+		public int transcodeBitrate = 0;
+
+		// Max width and height of re-encoded videos in pixels, 0 = unchanged (CAPTURE_VIDEO only)
+		public int transcodeMaxSize = 0;
+
 		// The array of results to be returned to the javascript callback on success
 		public JSONArray results = new JSONArray();
 
+		// The number of media files captured so far, including the ones still being processed
+		public int captured = 0;
+
+		// The post-processing stages still running for each captured media file, by result index
+		private final SparseArray<Set<String>> processing = new SparseArray<>();
+
+		// No more media files will be captured, resolve once processing is done
+		private boolean finished = false;
+
 		// The callback context for this plugin request
 		private CallbackContext callbackContext;
 
@@ -208,6 +423,33 @@ public class PendingRequests {
 				this.quality = options.optInt("quality", 1);
 				this.confirmCapture = options.optBoolean("confirmCapture", true);
 				this.useInternalCameraApp = options.optBoolean("useInternalCameraApp", false);
+				this.encodingType = options.optString("encodingType", "jpeg");
+				this.encodingQuality = options.optInt("encodingQuality", 0);
+				this.maxWidth = options.optInt("maxWidth", 0);
+				this.maxHeight = options.optInt("maxHeight", 0);
+				this.burst = options.optBoolean("burst", false);
+				this.thumbnail = options.optInt("thumbnail", 0);
+				this.progressive = options.optBoolean("progressive", false);
+				this.progress = options.optBoolean("progress", false);
+				this.storage = options.optString("storage", FileHelper.STORAGE_GALLERY);
+				this.formatData = options.optBoolean("formatData", false);
+				this.hash = options.isNull("hash") ? "" : options.optString("hash");
+				if (!this.hash.isEmpty() && !HashIndex.SHA_256.equals(this.hash)) {
+					LOG.w(LOG_TAG, "Unsupported hash " + this.hash + ", supported is " + HashIndex.SHA_256);
+				}
+				this.maxResolution = options.optInt("maxResolution", 0);
+				this.videoBitrate = options.optInt("videoBitrate", 0);
+				this.audioBitrate = options.optInt("audioBitrate", 0);
+				this.frameRate = options.optInt("frameRate", 0);
+				this.videoCodec = options.isNull("videoCodec") ? "" : options.optString("videoCodec");
+				this.segmentDuration = options.optInt("segmentDuration", 0);
+				this.segmentSize = options.optInt("segmentSize", 0);
+				JSONObject transcode = options.optJSONObject("transcode");
+				if (transcode != null) {
+					this.transcodeCodec = transcode.optString("codec", VideoTranscoder.CODEC_H264);
+					this.transcodeBitrate = transcode.optInt("bitrate", 0);
+					this.transcodeMaxSize = transcode.optInt("maxSize", 0);
+				}
 			}
 
 			this.requestCode = incrementCurrentReqId();
@@ -220,6 +462,28 @@ public class PendingRequests {
 			this.limit = bundle.getLong(LIMIT_KEY);
 			this.duration = bundle.getInt(DURATION_KEY);
 			this.quality = bundle.getInt(QUALITY_KEY);
+			this.useInternalCameraApp = bundle.getBoolean(USE_INTERNAL_CAMERA_APP_KEY);
+			this.encodingType = bundle.getString(ENCODING_TYPE_KEY, "jpeg");
+			this.encodingQuality = bundle.getInt(ENCODING_QUALITY_KEY);
+			this.maxWidth = bundle.getInt(MAX_WIDTH_KEY);
+			this.maxHeight = bundle.getInt(MAX_HEIGHT_KEY);
+			this.burst = bundle.getBoolean(BURST_KEY);
+			this.thumbnail = bundle.getInt(THUMBNAIL_KEY);
+			this.progressive = bundle.getBoolean(PROGRESSIVE_KEY);
+			this.progress = bundle.getBoolean(PROGRESS_KEY);
+			this.storage = bundle.getString(STORAGE_KEY, FileHelper.STORAGE_GALLERY);
+			this.formatData = bundle.getBoolean(FORMAT_DATA_KEY);
+			this.hash = bundle.getString(HASH_KEY, "");
+			this.maxResolution = bundle.getInt(MAX_RESOLUTION_KEY);
+			this.videoBitrate = bundle.getInt(VIDEO_BITRATE_KEY);
+			this.audioBitrate = bundle.getInt(AUDIO_BITRATE_KEY);
+			this.frameRate = bundle.getInt(FRAME_RATE_KEY);
+			this.videoCodec = bundle.getString(VIDEO_CODEC_KEY, "");
+			this.segmentDuration = bundle.getInt(SEGMENT_DURATION_KEY);
+			this.segmentSize = bundle.getInt(SEGMENT_SIZE_KEY);
+			this.transcodeCodec = bundle.getString(TRANSCODE_CODEC_KEY, "");
+			this.transcodeBitrate = bundle.getInt(TRANSCODE_BITRATE_KEY);
+			this.transcodeMaxSize = bundle.getInt(TRANSCODE_MAX_SIZE_KEY);
 
 			try {
 				this.results = new JSONArray(bundle.getString(RESULTS_KEY));
@@ -227,6 +491,22 @@ public class PendingRequests {
 				// This should never be caught
 				LOG.e(LOG_TAG, "Error parsing results for request from saved bundle", e);
 			}
+			// media files that were still being processed are lost with the process
+			this.captured = this.results.length();
+		}
+
+		/**
+		 * @return the results without the gaps of media files that are still being processed,
+		 * they arrive out of order and are lost with the process
+		 */
+		private JSONArray getCompletedResults() {
+			JSONArray completed = new JSONArray();
+			for (int i = 0; i < this.results.length(); i++) {
+				if (!this.results.isNull(i)) {
+					completed.put(this.results.opt(i));
+				}
+			}
+			return completed;
 		}
 
 		private Bundle toBundle() {
@@ -236,7 +516,29 @@ public class PendingRequests {
 			bundle.putLong(LIMIT_KEY, this.limit);
 			bundle.putInt(DURATION_KEY, this.duration);
 			bundle.putInt(QUALITY_KEY, this.quality);
-			bundle.putString(RESULTS_KEY, this.results.toString());
+			bundle.putBoolean(USE_INTERNAL_CAMERA_APP_KEY, this.useInternalCameraApp);
+			bundle.putString(ENCODING_TYPE_KEY, this.encodingType);
+			bundle.putInt(ENCODING_QUALITY_KEY, this.encodingQuality);
+			bundle.putInt(MAX_WIDTH_KEY, this.maxWidth);
+			bundle.putInt(MAX_HEIGHT_KEY, this.maxHeight);
+			bundle.putBoolean(BURST_KEY, this.burst);
+			bundle.putInt(THUMBNAIL_KEY, this.thumbnail);
+			bundle.putBoolean(PROGRESSIVE_KEY, this.progressive);
+			bundle.putBoolean(PROGRESS_KEY, this.progress);
+			bundle.putString(STORAGE_KEY, this.storage);
+			bundle.putBoolean(FORMAT_DATA_KEY, this.formatData);
+			bundle.putString(HASH_KEY, this.hash);
+			bundle.putInt(MAX_RESOLUTION_KEY, this.maxResolution);
+			bundle.putInt(VIDEO_BITRATE_KEY, this.videoBitrate);
+			bundle.putInt(AUDIO_BITRATE_KEY, this.audioBitrate);
+			bundle.putInt(FRAME_RATE_KEY, this.frameRate);
+			bundle.putString(VIDEO_CODEC_KEY, this.videoCodec);
+			bundle.putInt(SEGMENT_DURATION_KEY, this.segmentDuration);
+			bundle.putInt(SEGMENT_SIZE_KEY, this.segmentSize);
+			bundle.putString(TRANSCODE_CODEC_KEY, this.transcodeCodec);
+			bundle.putInt(TRANSCODE_BITRATE_KEY, this.transcodeBitrate);
+			bundle.putInt(TRANSCODE_MAX_SIZE_KEY, this.transcodeMaxSize);
+			bundle.putString(RESULTS_KEY, getCompletedResults().toString());
 
 			return bundle;
 		}
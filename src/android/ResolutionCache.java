@@ -0,0 +1,217 @@
+package org.apache.cordova.mediacapture;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.otaliastudios.cameraview.controls.Facing;
+import com.otaliastudios.cameraview.size.Size;
+
+import org.apache.cordova.LOG;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolutions known to work and known to fail, per device model, camera and capture mode. The
+ * last size that worked is opened first and failed sizes are skipped, so a working size is
+ * usually found on the first open. After a failure the next size down is tried, sizes that
+ * weren't tried yet are never skipped. Failures expire, so a transient one doesn't downgrade the
+ * device for good.
+ */
+class ResolutionCache {
+	private static final String TAG = ResolutionCache.class.getSimpleName();
+
+	private static final String PREFERENCES = "org.apache.cordova.mediacapture.resolutions";
+	/**
+	 * last size that worked, a string. The former ".good" set is no longer read.
+	 */
+	private static final String GOOD = ".lastGood";
+	/**
+	 * "size@time" entries of failed sizes
+	 */
+	private static final String BAD = ".failed";
+
+	/**
+	 * failed sizes are tried again after a week, e.g. after a transient failure or an update
+	 */
+	private static final long BAD_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+	private static final Map<Facing, String> sCameraIds = new EnumMap<>(Facing.class);
+
+	private final SharedPreferences mPreferences;
+
+	ResolutionCache(@NonNull Context context) {
+		mPreferences = context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * @return key of the device model, the camera of the facing and the capture mode
+	 */
+	@NonNull
+	static String getKey(@NonNull Context context, @NonNull Facing facing, boolean video) {
+		return Build.MANUFACTURER + " " + Build.MODEL + "/" + getCameraId(context, facing) + "/" + (video ? "video" : "picture");
+	}
+
+	/**
+	 * @return id of the first camera with the facing, the one CameraView opens. The facing itself
+	 * if the camera can't be looked up.
+	 */
+	@NonNull
+	static synchronized String getCameraId(@NonNull Context context, @NonNull Facing facing) {
+		String id = sCameraIds.get(facing);
+		if (id != null)
+			return id;
+
+		id = facing.name();
+		int lensFacing = facing == Facing.FRONT ? CameraCharacteristics.LENS_FACING_FRONT : CameraCharacteristics.LENS_FACING_BACK;
+		CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+		try {
+			for (String cameraId : manager.getCameraIdList()) {
+				Integer value = manager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+				if (value != null && value == lensFacing) {
+					id = cameraId;
+					break;
+				}
+			}
+		} catch (CameraAccessException | RuntimeException e) {
+			LOG.w(TAG, "error looking up camera id", e);
+		}
+		sCameraIds.put(facing, id);
+		return id;
+	}
+
+	/**
+	 * @param key        key from {@link #getKey}
+	 * @param sorted     usable sizes, most preferred first
+	 * @param lastFailed size that failed last while the camera was open, null on the first open
+	 * @return sizes to try, most preferred first, without known bad ones. On the first open the
+	 * last known good size leads, after a failure the sizes less preferred than the failed one.
+	 * If all sizes are known bad, the marks are ignored and all sizes are tried again.
+	 */
+	@NonNull
+	synchronized List<Size> select(@NonNull String key, @NonNull List<Size> sorted, @Nullable Size lastFailed) {
+		Set<String> bad = getBadSizes(key);
+		List<Size> candidates = new ArrayList<>(sorted);
+		if (lastFailed != null) {
+			//sizes preferred over the failed one are assumed to fail as well
+			String failed = toString(lastFailed);
+			int position = -1;
+			for (int i = 0; i < candidates.size() && position < 0; i++) {
+				if (failed.equals(toString(candidates.get(i))))
+					position = i;
+			}
+			candidates = new ArrayList<>(candidates.subList(position + 1, candidates.size()));
+			candidates.removeIf(size -> bad.contains(toString(size)));
+			return candidates;
+		}
+
+		List<Size> usable = new ArrayList<>(candidates);
+		usable.removeIf(size -> bad.contains(toString(size)));
+		if (usable.isEmpty()) {
+			LOG.d(TAG, "all sizes failed on %s, trying them again", key);
+			return candidates;
+		}
+
+		String good = mPreferences.getString(key + GOOD, null);
+		for (int i = 0; good != null && i < usable.size(); i++) {
+			if (good.equals(toString(usable.get(i)))) {
+				usable.add(0, usable.remove(i));
+				break;
+			}
+		}
+		return usable;
+	}
+
+	/**
+	 * remembers the size as the one to open first and clears a bad mark of it
+	 */
+	synchronized void markGood(@NonNull String key, @NonNull Size size) {
+		String value = toString(size);
+		Set<String> bad = getBadEntries(key);
+		boolean wasBad = bad.removeIf(entry -> entry.startsWith(value + "@"));
+		if (!wasBad && value.equals(mPreferences.getString(key + GOOD, null)))
+			return;
+
+		mPreferences.edit()
+				.putString(key + GOOD, value)
+				.putStringSet(key + BAD, bad)
+				.apply();
+	}
+
+	/**
+	 * skips the size for {@link #BAD_MAX_AGE_MS}, a transient failure doesn't downgrade the
+	 * device for good
+	 */
+	synchronized void markBad(@NonNull String key, @NonNull Size size) {
+		LOG.d(TAG, "%s failed on %s", size, key);
+		String value = toString(size);
+		Set<String> bad = getBadEntries(key);
+		bad.removeIf(entry -> entry.startsWith(value + "@"));
+		bad.add(value + "@" + System.currentTimeMillis());
+
+		SharedPreferences.Editor editor = mPreferences.edit().putStringSet(key + BAD, bad);
+		if (value.equals(mPreferences.getString(key + GOOD, null)))
+			editor.remove(key + GOOD);
+		editor.apply();
+	}
+
+	/**
+	 * @return sizes marked bad within {@link #BAD_MAX_AGE_MS}. Expired marks are removed together
+	 * with the known good size, so the better sizes they held back are tried again.
+	 */
+	private Set<String> getBadSizes(String key) {
+		Set<String> entries = getBadEntries(key);
+		Set<String> sizes = new HashSet<>();
+		long now = System.currentTimeMillis();
+		boolean expired = entries.removeIf(entry -> {
+			int separator = entry.indexOf('@');
+			long time = separator > 0 ? parseLong(entry.substring(separator + 1)) : 0;
+			return now - time > BAD_MAX_AGE_MS || time > now;
+		});
+		for (String entry : entries) {
+			sizes.add(entry.substring(0, entry.indexOf('@')));
+		}
+
+		if (expired) {
+			mPreferences.edit()
+					.putStringSet(key + BAD, entries)
+					.remove(key + GOOD)
+					.apply();
+		}
+		return sizes;
+	}
+
+	/**
+	 * @return modifiable copy of the "size@time" entries, the set of the preferences must not be
+	 * changed
+	 */
+	private Set<String> getBadEntries(String key) {
+		return new HashSet<>(mPreferences.getStringSet(key + BAD, new HashSet<>()));
+	}
+
+	private static long parseLong(String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * long by short edge, the camera reports sizes in view or output orientation
+	 */
+	private static String toString(Size size) {
+		return Math.max(size.getWidth(), size.getHeight()) + "x" + Math.min(size.getWidth(), size.getHeight());
+	}
+}
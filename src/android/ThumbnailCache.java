@@ -0,0 +1,202 @@
+package org.apache.cordova.mediacapture;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.cordova.LOG;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Small jpeg thumbnails of captured images and poster frames of videos. Thumbnails are kept in
+ * the app's cache directory, the least recently used ones are deleted once the directory exceeds
+ * {@link #MAX_SIZE} bytes.
+ */
+class ThumbnailCache {
+	private static final String TAG = ThumbnailCache.class.getSimpleName();
+
+	private static final String DIRECTORY = "mediacapture-thumbnails";
+	private static final long MAX_SIZE = 20 * 1024 * 1024;
+	private static final int QUALITY = 80;
+
+	private ThumbnailCache() {
+	}
+
+	/**
+	 * returns the cached thumbnail of the given media or creates it
+	 *
+	 * @param context  context for content resolver and cache directory
+	 * @param uri      content uri of the captured image or video
+	 * @param mimeType mime type of the media
+	 * @param size     max width and height of the thumbnail
+	 * @return thumbnail file or null if it could not be created
+	 */
+	@Nullable
+	static synchronized File get(@NonNull Context context, @NonNull Uri uri, @Nullable String mimeType, int size) {
+		File directory = new File(context.getCacheDir(), DIRECTORY);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			LOG.e(TAG, "could not create thumbnail directory");
+			return null;
+		}
+
+		File file = new File(directory, getKey(context, uri) + "_" + size + ".jpg");
+		if (file.exists()) {
+			file.setLastModified(System.currentTimeMillis());
+			return file;
+		}
+
+		Bitmap bitmap = null;
+		try {
+			boolean video = mimeType != null && mimeType.startsWith("video/");
+			//the media store only creates thumbnails of its own entries, not of scratch files
+			bitmap = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && "content".equals(uri.getScheme())
+					? context.getContentResolver().loadThumbnail(uri, new Size(size, size), null)
+					: video ? createVideoThumbnail(context, uri, size) : createImageThumbnail(context, uri, size);
+			if (bitmap == null)
+				return null;
+
+			try (OutputStream output = new FileOutputStream(file)) {
+				if (!bitmap.compress(Bitmap.CompressFormat.JPEG, QUALITY, output))
+					throw new IOException("could not compress thumbnail");
+			}
+		} catch (Exception e) {
+			LOG.e(TAG, "could not create thumbnail of " + uri, e);
+			file.delete();
+			return null;
+		} finally {
+			if (bitmap != null)
+				bitmap.recycle();
+		}
+
+		trim(directory);
+		return file;
+	}
+
+	/**
+	 * @return SHA-1 of the uri, length and modification time of the media, a rewritten file gets
+	 * a new thumbnail
+	 */
+	@NonNull
+	private static String getKey(Context context, Uri uri) {
+		String version = "";
+		try (ParcelFileDescriptor parcelFileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r")) {
+			StructStat stat = Os.fstat(parcelFileDescriptor.getFileDescriptor());
+			version = stat.st_size + "_" + stat.st_mtime;
+		} catch (IOException | ErrnoException | RuntimeException e) {
+			LOG.w(TAG, "could not stat " + uri, e);
+		}
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return HashIndex.toHex(digest.digest((uri + "|" + version).getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * decodes the image subsampled to the thumbnail size and rotates it by its exif orientation
+	 */
+	@Nullable
+	private static Bitmap createImageThumbnail(Context context, Uri uri, int size) throws IOException {
+		try (ParcelFileDescriptor parcelFileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r")) {
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeFileDescriptor(parcelFileDescriptor.getFileDescriptor(), null, options);
+
+			options.inSampleSize = ImageSaver.calculateInSampleSize(options.outWidth, options.outHeight, size, size);
+			options.inJustDecodeBounds = false;
+			Bitmap bitmap = BitmapFactory.decodeFileDescriptor(parcelFileDescriptor.getFileDescriptor(), null, options);
+			if (bitmap == null)
+				return null;
+
+			int orientation = new ExifInterface(parcelFileDescriptor.getFileDescriptor())
+					.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+			return scale(bitmap, orientation == ExifInterface.ORIENTATION_ROTATE_90 ? 90
+					: orientation == ExifInterface.ORIENTATION_ROTATE_180 ? 180
+					: orientation == ExifInterface.ORIENTATION_ROTATE_270 ? 270 : 0, size);
+		}
+	}
+
+	/**
+	 * uses the frame closest to the start of the video as poster
+	 */
+	@Nullable
+	private static Bitmap createVideoThumbnail(Context context, Uri uri, int size) throws IOException {
+		MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+		try {
+			retriever.setDataSource(context, uri);
+			Bitmap frame = retriever.getFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+			return frame != null ? scale(frame, 0, size) : null;
+		} finally {
+			retriever.release();
+		}
+	}
+
+	/**
+	 * rotates and scales the bitmap to fit into size x size
+	 *
+	 * @param bitmap source, recycled if a new bitmap was created
+	 */
+	@NonNull
+	private static Bitmap scale(@NonNull Bitmap bitmap, int degrees, int size) {
+		float scale = Math.min(1f, size / (float) Math.max(bitmap.getWidth(), bitmap.getHeight()));
+		if (degrees == 0 && scale >= 1f)
+			return bitmap;
+
+		Matrix matrix = new Matrix();
+		matrix.preRotate(degrees);
+		matrix.postScale(scale, scale);
+		Bitmap scaled = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+		if (scaled != bitmap)
+			bitmap.recycle();
+		return scaled;
+	}
+
+	/**
+	 * deletes the least recently used thumbnails until the directory fits into {@link #MAX_SIZE}
+	 */
+	private static void trim(File directory) {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+
+		long total = 0;
+		for (File file : files) {
+			total += file.length();
+		}
+		if (total <= MAX_SIZE)
+			return;
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (total <= MAX_SIZE)
+				break;
+			long length = file.length();
+			if (file.delete())
+				total -= length;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.apache.cordova.mediacapture;
+
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.otaliastudios.cameraview.CameraView;
+import com.otaliastudios.cameraview.controls.VideoCodec;
+import com.otaliastudios.cameraview.size.Size;
+
+import org.apache.cordova.LOG;
+
+/**
+ * Recording profile of videos taken with the internal camera: max resolution, bitrates, frame
+ * rate and codec. Zero or empty values keep the camera's defaults.
+ */
+class VideoProfile {
+	private static final String TAG = VideoProfile.class.getSimpleName();
+
+	private static final String EXTRA_MAX_RESOLUTION = "org.apache.cordova.mediacapture.extra.MAX_RESOLUTION";
+	private static final String EXTRA_VIDEO_BITRATE = "org.apache.cordova.mediacapture.extra.VIDEO_BITRATE";
+	private static final String EXTRA_AUDIO_BITRATE = "org.apache.cordova.mediacapture.extra.AUDIO_BITRATE";
+	private static final String EXTRA_FRAME_RATE = "org.apache.cordova.mediacapture.extra.FRAME_RATE";
+	private static final String EXTRA_VIDEO_CODEC = "org.apache.cordova.mediacapture.extra.VIDEO_CODEC";
+
+	/**
+	 * max width and height of the recording, 0 = unlimited
+	 */
+	final int maxResolution;
+	/**
+	 * bits per second, 0 = camera default
+	 */
+	final int videoBitrate;
+	final int audioBitrate;
+	/**
+	 * frames per second, 0 = camera default
+	 */
+	final int frameRate;
+	/**
+	 * h264 or empty for the device default
+	 */
+	@NonNull
+	final String codec;
+
+	VideoProfile(int maxResolution, int videoBitrate, int audioBitrate, int frameRate, @Nullable String codec) {
+		this.maxResolution = Math.max(0, maxResolution);
+		this.videoBitrate = Math.max(0, videoBitrate);
+		this.audioBitrate = Math.max(0, audioBitrate);
+		this.frameRate = Math.max(0, frameRate);
+		this.codec = codec != null ? codec : "";
+	}
+
+	/**
+	 * @return true if the size is within the max resolution
+	 */
+	boolean fits(@NonNull Size size) {
+		return maxResolution == 0 || Math.max(size.getWidth(), size.getHeight()) <= maxResolution;
+	}
+
+	/**
+	 * sets bitrates, frame rate and codec of the camera, the size is picked by the size selector
+	 */
+	void apply(@NonNull CameraView cameraView) {
+		if (videoBitrate > 0)
+			cameraView.setVideoBitRate(videoBitrate);
+		if (audioBitrate > 0)
+			cameraView.setAudioBitRate(audioBitrate);
+		if (frameRate > 0)
+			cameraView.setPreviewFrameRate(frameRate);
+		cameraView.setVideoCodec(getVideoCodec());
+	}
+
+	/**
+	 * the camera records h264 at most, HEVC needs a transcode after the capture
+	 */
+	@NonNull
+	private VideoCodec getVideoCodec() {
+		if (VideoTranscoder.CODEC_H264.equals(codec))
+			return VideoCodec.H_264;
+		if (!codec.isEmpty())
+			LOG.w(TAG, "codec %s can't be recorded, using the device default", codec);
+		return VideoCodec.DEVICE_DEFAULT;
+	}
+
+	void putExtras(@NonNull Intent intent) {
+		intent.putExtra(EXTRA_MAX_RESOLUTION, maxResolution);
+		intent.putExtra(EXTRA_VIDEO_BITRATE, videoBitrate);
+		intent.putExtra(EXTRA_AUDIO_BITRATE, audioBitrate);
+		intent.putExtra(EXTRA_FRAME_RATE, frameRate);
+		intent.putExtra(EXTRA_VIDEO_CODEC, codec);
+	}
+
+	@NonNull
+	static VideoProfile fromExtras(@NonNull Intent intent) {
+		return new VideoProfile(
+				intent.getIntExtra(EXTRA_MAX_RESOLUTION, 0),
+				intent.getIntExtra(EXTRA_VIDEO_BITRATE, 0),
+				intent.getIntExtra(EXTRA_AUDIO_BITRATE, 0),
+				intent.getIntExtra(EXTRA_FRAME_RATE, 0),
+				intent.getStringExtra(EXTRA_VIDEO_CODEC));
+	}
+}
@@ -0,0 +1,570 @@
+package org.apache.cordova.mediacapture;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.cordova.LOG;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Re-encodes videos to a target codec, bitrate and size with MediaCodec. Decoded frames go from
+ * the decoder's output surface to the encoder's input surface and are scaled by the GPU on the
+ * way, the pixels never reach the CPU. Audio tracks are copied without re-encoding.
+ */
+class VideoTranscoder {
+	private static final String TAG = VideoTranscoder.class.getSimpleName();
+
+	static final String CODEC_H264 = "h264";
+	static final String CODEC_HEVC = "hevc";
+
+	private static final int DEFAULT_FRAME_RATE = 30;
+	private static final int I_FRAME_INTERVAL = 1;
+	/**
+	 * bits per pixel and frame if no bitrate is requested
+	 */
+	private static final float BITS_PER_PIXEL = 0.1f;
+	private static final long TIMEOUT_US = 10000;
+	private static final long FRAME_TIMEOUT_MS = 2500;
+	private static final int AUDIO_BUFFER_SIZE = 256 * 1024;
+
+	interface ProgressListener {
+		/**
+		 * @param progress 0 to 1, by presentation time of the encoded frames
+		 */
+		void onProgress(float progress);
+	}
+
+	private final Context mContext;
+	private final Uri mSource;
+	private final ProgressListener mListener;
+
+	private MediaMuxer mMuxer;
+	private MediaFormat mAudioFormat;
+	private MediaExtractor mAudioExtractor;
+	private ByteBuffer mAudioBuffer;
+	private boolean mAudioDone;
+	private int mVideoTrack = -1;
+	private int mAudioTrack = -1;
+	private boolean mMuxerStarted;
+	private long mDurationUs;
+	private float mProgress;
+
+	private VideoTranscoder(Context context, Uri source, @Nullable ProgressListener listener) {
+		mContext = context;
+		mSource = source;
+		mListener = listener;
+	}
+
+	/**
+	 * @param context  context for reading the source
+	 * @param source   content or file uri of the video
+	 * @param target   mp4 file the result is written to
+	 * @param codec    {@link #CODEC_H264} or {@link #CODEC_HEVC}, falls back to h264 if there is
+	 *                 no HEVC encoder
+	 * @param bitrate  target video bitrate in bits per second, 0 picks one by size and frame rate
+	 * @param maxSize  max width and height in pixels, 0 keeps the size
+	 * @param listener optional progress listener, called on the transcoding thread
+	 */
+	static void transcode(@NonNull Context context, @NonNull Uri source, @NonNull File target, @NonNull String codec,
+						  int bitrate, int maxSize, @Nullable ProgressListener listener) throws IOException {
+		new VideoTranscoder(context, source, listener).run(target, codec, bitrate, maxSize);
+	}
+
+	private void run(File target, String codec, int bitrate, int maxSize) throws IOException {
+		MediaExtractor extractor = new MediaExtractor();
+		MediaExtractor audioExtractor = new MediaExtractor();
+		MediaCodec decoder = null;
+		MediaCodec encoder = null;
+		InputSurface inputSurface = null;
+		OutputSurface outputSurface = null;
+		try {
+			extractor.setDataSource(mContext, mSource, null);
+			int videoSourceTrack = findTrack(extractor, "video/");
+			if (videoSourceTrack < 0)
+				throw new IOException("no video track in " + mSource);
+			extractor.selectTrack(videoSourceTrack);
+			MediaFormat inputFormat = extractor.getTrackFormat(videoSourceTrack);
+			//frames are encoded as stored, the rotation goes to the container
+			inputFormat.setInteger(MediaFormat.KEY_ROTATION, 0);
+
+			int width = inputFormat.getInteger(MediaFormat.KEY_WIDTH);
+			int height = inputFormat.getInteger(MediaFormat.KEY_HEIGHT);
+			float scale = maxSize > 0 ? Math.min(1f, maxSize / (float) Math.max(width, height)) : 1f;
+			int outputWidth = Math.round(width * scale) & ~1;
+			int outputHeight = Math.round(height * scale) & ~1;
+			int frameRate = getFrameRate(inputFormat);
+			mDurationUs = inputFormat.containsKey(MediaFormat.KEY_DURATION) ? inputFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+
+			String mime = resolveMime(codec, outputWidth, outputHeight);
+			MediaFormat outputFormat = MediaFormat.createVideoFormat(mime, outputWidth, outputHeight);
+			outputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+			outputFormat.setInteger(MediaFormat.KEY_BIT_RATE,
+					bitrate > 0 ? bitrate : (int) (outputWidth * outputHeight * frameRate * BITS_PER_PIXEL));
+			outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+			outputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+			LOG.d(TAG, "transcoding %dx%d to %dx%d %s", width, height, outputWidth, outputHeight, mime);
+
+			encoder = MediaCodec.createEncoderByType(mime);
+			encoder.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+			inputSurface = new InputSurface(encoder.createInputSurface());
+			inputSurface.makeCurrent();
+			encoder.start();
+
+			outputSurface = new OutputSurface();
+			decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+			decoder.configure(inputFormat, outputSurface.getSurface(), null, 0);
+			decoder.start();
+
+			audioExtractor.setDataSource(mContext, mSource, null);
+			int audioSourceTrack = findTrack(audioExtractor, "audio/");
+			if (audioSourceTrack >= 0) {
+				audioExtractor.selectTrack(audioSourceTrack);
+				mAudioFormat = audioExtractor.getTrackFormat(audioSourceTrack);
+				mAudioExtractor = audioExtractor;
+			}
+
+			mMuxer = new MediaMuxer(target.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+			mMuxer.setOrientationHint(getRotation());
+
+			transcodeVideo(extractor, decoder, encoder, inputSurface, outputSurface, outputWidth, outputHeight);
+			if (!mMuxerStarted)
+				throw new IOException("no frames decoded from " + mSource);
+			//the audio after the last video frame
+			writeAudioUntil(Long.MAX_VALUE);
+			mMuxer.stop();
+		} finally {
+			if (decoder != null)
+				decoder.release();
+			if (encoder != null)
+				encoder.release();
+			if (outputSurface != null)
+				outputSurface.release();
+			if (inputSurface != null)
+				inputSurface.release();
+			if (mMuxer != null)
+				mMuxer.release();
+			extractor.release();
+			audioExtractor.release();
+		}
+	}
+
+	private void transcodeVideo(MediaExtractor extractor, MediaCodec decoder, MediaCodec encoder,
+								InputSurface inputSurface, OutputSurface outputSurface, int width, int height) throws IOException {
+		MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+		boolean inputDone = false;
+		boolean decoderDone = false;
+		boolean encoderDone = false;
+		while (!encoderDone) {
+			if (!inputDone) {
+				int index = decoder.dequeueInputBuffer(TIMEOUT_US);
+				if (index >= 0) {
+					ByteBuffer buffer = decoder.getInputBuffer(index);
+					int size = extractor.readSampleData(buffer, 0);
+					if (size < 0) {
+						decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+						inputDone = true;
+					} else {
+						decoder.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+						extractor.advance();
+					}
+				}
+			}
+
+			encoderDone = drainEncoder(encoder, info);
+
+			if (!decoderDone) {
+				int index = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+				if (index >= 0) {
+					boolean render = info.size > 0;
+					decoder.releaseOutputBuffer(index, render);
+					if (render) {
+						outputSurface.awaitNewImage();
+						outputSurface.drawImage(width, height);
+						inputSurface.setPresentationTime(info.presentationTimeUs * 1000);
+						inputSurface.swapBuffers();
+					}
+					if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+						encoder.signalEndOfInputStream();
+						decoderDone = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * writes the available encoder output to the muxer
+	 *
+	 * @return true once the encoder reached the end of the stream
+	 */
+	private boolean drainEncoder(MediaCodec encoder, MediaCodec.BufferInfo info) {
+		while (true) {
+			int index = encoder.dequeueOutputBuffer(info, 0);
+			if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+				return false;
+			} else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+				mVideoTrack = mMuxer.addTrack(encoder.getOutputFormat());
+				if (mAudioFormat != null)
+					mAudioTrack = mMuxer.addTrack(mAudioFormat);
+				mMuxer.start();
+				mMuxerStarted = true;
+			} else if (index >= 0) {
+				ByteBuffer buffer = encoder.getOutputBuffer(index);
+				if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+					//already part of the output format
+					info.size = 0;
+				}
+				if (info.size > 0 && mMuxerStarted) {
+					//the audio up to the frame goes first, the samples are interleaved by time
+					writeAudioUntil(info.presentationTimeUs);
+					mMuxer.writeSampleData(mVideoTrack, buffer, info);
+					reportProgress(info.presentationTimeUs);
+				}
+				encoder.releaseOutputBuffer(index, false);
+				if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+					return true;
+			}
+		}
+	}
+
+	/**
+	 * copies the audio samples up to the time as they are, the audio isn't re-encoded
+	 */
+	private void writeAudioUntil(long timeUs) {
+		if (mAudioTrack < 0 || mAudioDone)
+			return;
+		if (mAudioBuffer == null) {
+			int size = mAudioFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+					? mAudioFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : AUDIO_BUFFER_SIZE;
+			mAudioBuffer = ByteBuffer.allocateDirect(size);
+		}
+
+		MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+		while (true) {
+			long sampleTime = mAudioExtractor.getSampleTime();
+			if (sampleTime < 0) {
+				mAudioDone = true;
+				return;
+			}
+			if (sampleTime > timeUs)
+				return;
+
+			int sampleSize = mAudioExtractor.readSampleData(mAudioBuffer, 0);
+			if (sampleSize < 0) {
+				mAudioDone = true;
+				return;
+			}
+			int flags = (mAudioExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+					? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+			info.set(0, sampleSize, sampleTime, flags);
+			mMuxer.writeSampleData(mAudioTrack, mAudioBuffer, info);
+			mAudioExtractor.advance();
+		}
+	}
+
+	/**
+	 * @return frame rate of the source, many extractors report it as a float
+	 */
+	private static int getFrameRate(MediaFormat format) {
+		if (!format.containsKey(MediaFormat.KEY_FRAME_RATE))
+			return DEFAULT_FRAME_RATE;
+
+		int frameRate;
+		try {
+			frameRate = format.getInteger(MediaFormat.KEY_FRAME_RATE);
+		} catch (ClassCastException e) {
+			try {
+				frameRate = Math.round(format.getFloat(MediaFormat.KEY_FRAME_RATE));
+			} catch (ClassCastException e2) {
+				frameRate = DEFAULT_FRAME_RATE;
+			}
+		}
+		return frameRate > 0 ? frameRate : DEFAULT_FRAME_RATE;
+	}
+
+	private void reportProgress(long presentationTimeUs) {
+		if (mListener == null || mDurationUs <= 0)
+			return;
+		float progress = Math.min(1f, presentationTimeUs / (float) mDurationUs);
+		//at most one report per percent
+		if (progress - mProgress >= 0.01f) {
+			mProgress = progress;
+			mListener.onProgress(progress);
+		}
+	}
+
+	private int getRotation() {
+		MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+		try {
+			retriever.setDataSource(mContext, mSource);
+			String rotation = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+			return rotation != null ? Integer.parseInt(rotation) : 0;
+		} catch (RuntimeException e) {
+			return 0;
+		} finally {
+			try {
+				retriever.release();
+			} catch (IOException e) {
+				LOG.w(TAG, "error releasing retriever", e);
+			}
+		}
+	}
+
+	private static int findTrack(MediaExtractor extractor, String mimePrefix) {
+		for (int i = 0; i < extractor.getTrackCount(); i++) {
+			String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+			if (mime != null && mime.startsWith(mimePrefix))
+				return i;
+		}
+		return -1;
+	}
+
+	private static String resolveMime(String codec, int width, int height) {
+		if (!CODEC_HEVC.equals(codec))
+			return MediaFormat.MIMETYPE_VIDEO_AVC;
+
+		MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_HEVC, width, height);
+		if (new MediaCodecList(MediaCodecList.REGULAR_CODECS).findEncoderForFormat(format) == null) {
+			LOG.w(TAG, "no HEVC encoder, falling back to h264");
+			return MediaFormat.MIMETYPE_VIDEO_AVC;
+		}
+		return MediaFormat.MIMETYPE_VIDEO_HEVC;
+	}
+
+	/**
+	 * EGL window surface on the encoder's input surface
+	 */
+	private static class InputSurface {
+		private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+		private final Surface mSurface;
+		private final EGLDisplay mDisplay;
+		private final EGLContext mContext;
+		private final EGLSurface mEglSurface;
+
+		InputSurface(Surface surface) {
+			mSurface = surface;
+			mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+			int[] version = new int[2];
+			if (!EGL14.eglInitialize(mDisplay, version, 0, version, 1))
+				throw new IllegalStateException("eglInitialize failed");
+
+			int[] attributes = {
+					EGL14.EGL_RED_SIZE, 8,
+					EGL14.EGL_GREEN_SIZE, 8,
+					EGL14.EGL_BLUE_SIZE, 8,
+					EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+					EGL_RECORDABLE_ANDROID, 1,
+					EGL14.EGL_NONE
+			};
+			EGLConfig[] configs = new EGLConfig[1];
+			int[] count = new int[1];
+			if (!EGL14.eglChooseConfig(mDisplay, attributes, 0, configs, 0, 1, count, 0) || count[0] == 0)
+				throw new IllegalStateException("no recordable EGL config");
+
+			mContext = EGL14.eglCreateContext(mDisplay, configs[0], EGL14.EGL_NO_CONTEXT,
+					new int[]{EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE}, 0);
+			mEglSurface = EGL14.eglCreateWindowSurface(mDisplay, configs[0], surface, new int[]{EGL14.EGL_NONE}, 0);
+			if (mContext == EGL14.EGL_NO_CONTEXT || mEglSurface == EGL14.EGL_NO_SURFACE)
+				throw new IllegalStateException("EGL setup failed: " + EGL14.eglGetError());
+		}
+
+		void makeCurrent() {
+			if (!EGL14.eglMakeCurrent(mDisplay, mEglSurface, mEglSurface, mContext))
+				throw new IllegalStateException("eglMakeCurrent failed");
+		}
+
+		void setPresentationTime(long nanos) {
+			EGLExt.eglPresentationTimeANDROID(mDisplay, mEglSurface, nanos);
+		}
+
+		void swapBuffers() {
+			EGL14.eglSwapBuffers(mDisplay, mEglSurface);
+		}
+
+		void release() {
+			EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+			EGL14.eglDestroySurface(mDisplay, mEglSurface);
+			EGL14.eglDestroyContext(mDisplay, mContext);
+			EGL14.eglReleaseThread();
+			EGL14.eglTerminate(mDisplay);
+			mSurface.release();
+		}
+	}
+
+	/**
+	 * surface texture the decoder renders to, its frames are drawn to the current EGL surface
+	 */
+	private static class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
+		private static final String VERTEX_SHADER =
+				"uniform mat4 uTransform;\n" +
+						"attribute vec4 aPosition;\n" +
+						"attribute vec4 aTextureCoord;\n" +
+						"varying vec2 vTextureCoord;\n" +
+						"void main() {\n" +
+						"  gl_Position = aPosition;\n" +
+						"  vTextureCoord = (uTransform * aTextureCoord).xy;\n" +
+						"}\n";
+		private static final String FRAGMENT_SHADER =
+				"#extension GL_OES_EGL_image_external : require\n" +
+						"precision mediump float;\n" +
+						"varying vec2 vTextureCoord;\n" +
+						"uniform samplerExternalOES sTexture;\n" +
+						"void main() {\n" +
+						"  gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+						"}\n";
+		/**
+		 * full screen triangle strip, x, y, u, v
+		 */
+		private static final float[] VERTICES = {
+				-1f, -1f, 0f, 0f,
+				1f, -1f, 1f, 0f,
+				-1f, 1f, 0f, 1f,
+				1f, 1f, 1f, 1f
+		};
+
+		private final int mTexture;
+		private final int mProgram;
+		private final int mPositionLocation;
+		private final int mTextureCoordLocation;
+		private final int mTransformLocation;
+		private final FloatBuffer mVertices;
+		private final float[] mTransform = new float[16];
+		private final SurfaceTexture mSurfaceTexture;
+		private final Surface mSurface;
+
+		private final Object mFrameLock = new Object();
+		private boolean mFrameAvailable;
+
+		/**
+		 * needs a current EGL context
+		 */
+		OutputSurface() {
+			int[] textures = new int[1];
+			GLES20.glGenTextures(1, textures, 0);
+			mTexture = textures[0];
+			GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTexture);
+			GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+			GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+			GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+			GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+			mProgram = createProgram();
+			mPositionLocation = GLES20.glGetAttribLocation(mProgram, "aPosition");
+			mTextureCoordLocation = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
+			mTransformLocation = GLES20.glGetUniformLocation(mProgram, "uTransform");
+
+			mVertices = ByteBuffer.allocateDirect(VERTICES.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+			mVertices.put(VERTICES);
+
+			//the thread has no looper, frame callbacks arrive on the main thread
+			mSurfaceTexture = new SurfaceTexture(mTexture);
+			mSurfaceTexture.setOnFrameAvailableListener(this);
+			mSurface = new Surface(mSurfaceTexture);
+		}
+
+		Surface getSurface() {
+			return mSurface;
+		}
+
+		@Override
+		public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+			synchronized (mFrameLock) {
+				mFrameAvailable = true;
+				mFrameLock.notifyAll();
+			}
+		}
+
+		void awaitNewImage() throws IOException {
+			synchronized (mFrameLock) {
+				long deadline = System.currentTimeMillis() + FRAME_TIMEOUT_MS;
+				while (!mFrameAvailable) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						throw new IOException("timed out waiting for a decoded frame");
+					try {
+						mFrameLock.wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("interrupted waiting for a decoded frame", e);
+					}
+				}
+				mFrameAvailable = false;
+			}
+			mSurfaceTexture.updateTexImage();
+		}
+
+		void drawImage(int width, int height) {
+			mSurfaceTexture.getTransformMatrix(mTransform);
+			GLES20.glViewport(0, 0, width, height);
+			GLES20.glUseProgram(mProgram);
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+			GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTexture);
+
+			mVertices.position(0);
+			GLES20.glVertexAttribPointer(mPositionLocation, 2, GLES20.GL_FLOAT, false, 16, mVertices);
+			GLES20.glEnableVertexAttribArray(mPositionLocation);
+			mVertices.position(2);
+			GLES20.glVertexAttribPointer(mTextureCoordLocation, 2, GLES20.GL_FLOAT, false, 16, mVertices);
+			GLES20.glEnableVertexAttribArray(mTextureCoordLocation);
+
+			GLES20.glUniformMatrix4fv(mTransformLocation, 1, false, mTransform, 0);
+			GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		}
+
+		void release() {
+			mSurface.release();
+			mSurfaceTexture.release();
+			GLES20.glDeleteProgram(mProgram);
+			GLES20.glDeleteTextures(1, new int[]{mTexture}, 0);
+		}
+
+		private static int createProgram() {
+			int program = GLES20.glCreateProgram();
+			GLES20.glAttachShader(program, loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER));
+			GLES20.glAttachShader(program, loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER));
+			GLES20.glLinkProgram(program);
+			int[] status = new int[1];
+			GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+			if (status[0] != GLES20.GL_TRUE)
+				throw new IllegalStateException("could not link program: " + GLES20.glGetProgramInfoLog(program));
+			return program;
+		}
+
+		private static int loadShader(int type, String source) {
+			int shader = GLES20.glCreateShader(type);
+			GLES20.glShaderSource(shader, source);
+			GLES20.glCompileShader(shader);
+			int[] status = new int[1];
+			GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+			if (status[0] == 0)
+				throw new IllegalStateException("could not compile shader: " + GLES20.glGetShaderInfoLog(shader));
+			return shader;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.apache.cordova.mediacapture;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.otaliastudios.cameraview.controls.Facing;
+
+import org.apache.cordova.LOG;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Work done ahead of a capture by prepareCapture(), off the main thread. The camera ids and
+ * characteristics are looked up and the target file is created if it is private or scratch. The
+ * next capture of the same kind within {@link #MAX_AGE_MS} uses the prepared file, otherwise it is
+ * deleted. Files left behind by a killed app are deleted at the next start.
+ */
+class WarmStart {
+	private static final String TAG = WarmStart.class.getSimpleName();
+
+	static final long MAX_AGE_MS = 30000;
+
+	private final Context mContext;
+	private final Executor mExecutor;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * prepared file, its kind and when it was created, null if there is none
+	 */
+	private Uri mUri;
+	private String mKind;
+	private long mTime;
+
+	/**
+	 * @param executor runs the deletion of expired files
+	 */
+	WarmStart(@NonNull Context context, @NonNull Executor executor) {
+		mContext = context.getApplicationContext();
+		mExecutor = executor;
+	}
+
+	/**
+	 * looks up the cameras, the capture activity then finds the camera ids cached. Blocks on the
+	 * camera service, not to be called on the main thread.
+	 */
+	static void warmUp(@NonNull Context context) {
+		ResolutionCache.getCameraId(context, Facing.BACK);
+		ResolutionCache.getCameraId(context, Facing.FRONT);
+	}
+
+	/**
+	 * keeps the file for the next capture of the kind, a file prepared before is deleted
+	 *
+	 * @param kind action, storage and mime type the file was created for
+	 */
+	synchronized void put(@NonNull String kind, @NonNull Uri uri) {
+		delete();
+		mUri = uri;
+		mKind = kind;
+		mTime = SystemClock.elapsedRealtime();
+		mHandler.postDelayed(() -> mExecutor.execute(this::expire), MAX_AGE_MS);
+	}
+
+	/**
+	 * @return the prepared file if it is of the kind and not expired, it is handed out only once
+	 */
+	@Nullable
+	synchronized Uri take(@NonNull String kind) {
+		expire();
+		if (mUri == null || !mKind.equals(kind))
+			return null;
+
+		Uri uri = mUri;
+		mUri = null;
+		mKind = null;
+		LOG.d(TAG, "using prepared file %s", uri);
+		//a prepared private file becomes a regular capture, it is no longer swept at start
+		return FileHelper.claimPreparedFile(uri);
+	}
+
+	/**
+	 * deletes the prepared file
+	 */
+	synchronized void clear() {
+		mHandler.removeCallbacksAndMessages(null);
+		delete();
+	}
+
+	private synchronized void expire() {
+		if (mUri != null && SystemClock.elapsedRealtime() - mTime >= MAX_AGE_MS)
+			delete();
+	}
+
+	private void delete() {
+		if (mUri == null)
+			return;
+		try {
+			FileHelper.deleteFile(mContext, mUri);
+		} catch (RuntimeException e) {
+			LOG.w(TAG, "error deleting prepared file " + mUri, e);
+		}
+		mUri = null;
+		mKind = null;
+	}
+}
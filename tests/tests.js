@@ -50,6 +50,16 @@ exports.defineAutoTests = function () {
             expect(typeof navigator.device.capture.captureVideo === 'function').toBe(true);
         });
 
+        it('capture.spec.13 should contain a getFormatDataBatch function', function () {
+            expect(navigator.device.capture.getFormatDataBatch).toBeDefined();
+            expect(typeof navigator.device.capture.getFormatDataBatch === 'function').toBe(true);
+        });
+
+        it('capture.spec.14 should contain a prepareCapture function', function () {
+            expect(navigator.device.capture.prepareCapture).toBeDefined();
+            expect(typeof navigator.device.capture.prepareCapture === 'function').toBe(true);
+        });
+
         describe('CaptureAudioOptions', function () {
             it('capture.spec.6 CaptureAudioOptions constructor should exist', function () {
                 const options = new CaptureAudioOptions();
@@ -52,6 +52,32 @@ interface Capture {
             onSuccess: (mediaFiles: MediaFile[]) => void,
             onError: (error: CaptureError) => void,
             options?: VideoOptions): void ;
+    /**
+     * Retrieves format information about many media files with a single native call. Android only.
+     * @param files      MediaFile objects or paths of the files.
+     * @param onSuccess  Executes with the MediaFileData of each file, in the order of files,
+     *                   null for files that could not be read.
+     * @param onError    Executes, if the format data could not be retrieved.
+     * @param onProgress Executes whenever a chunk of results is ready.
+     */
+    getFormatDataBatch(
+            files: Array<MediaFile | string>,
+            onSuccess: (data: Array<MediaFileData | null>) => void,
+            onError?: (error: CaptureError) => void,
+            onProgress?: (items: { index: number, data: MediaFileData }[]) => void): void ;
+    /**
+     * Prepares the next capture ahead of time, so its camera preview shows up faster. The next
+     * capture of the type with the same options uses the preparation within 30 seconds. Android only.
+     * @param type      The capture method that will be called.
+     * @param options   The options the capture will use.
+     * @param onSuccess Executes once the capture is prepared.
+     * @param onError   Executes, if the type is not supported.
+     */
+    prepareCapture(
+            type: 'captureImage' | 'captureVideo',
+            options?: ImageOptions | VideoOptions,
+            onSuccess?: () => void,
+            onError?: (error: CaptureError) => void): void ;
     /** The audio recording formats supported by the device. */
     supportedAudioModes: ConfigurationData[];
     /** The recording image sizes and formats supported by the device. */
@@ -72,6 +98,16 @@ interface MediaFile {
     lastModifiedDate: Date;
     /** The size of the file, in bytes. */
     size: number;
+    /** Measurements of the capture, only reported by the internal Android camera. */
+    metrics?: CaptureMetrics;
+    /** URL of a small JPEG thumbnail or video poster frame, set if requested on Android. */
+    thumbnail?: string;
+    /** Format information, set if requested on Android. */
+    formatData?: MediaFileData;
+    /** Lowercase hex SHA-256 of the content, set if requested on Android. */
+    hash?: string;
+    /** URI of an earlier capture with the same content, set if hashing was requested on Android. */
+    duplicateOf?: string;
     /**
      * Retrieves format information about the media capture file.
      * @param successCallback Invoked with a MediaFileData object when successful.
@@ -82,6 +118,14 @@ interface MediaFile {
         errorCallback?: () => void): void;
 }
 
+/** Encapsulates measurements taken while capturing a media file. */
+interface CaptureMetrics {
+    /** The memory in bytes the capture allocated at most on top of the memory in use before. */
+    peakMemory?: number;
+    /** Milliseconds from the capture call to the first camera preview frame. */
+    timeToFirstFrame?: number;
+}
+
 /** Encapsulates format information about a media file. */
 interface MediaFileData {
     /** The actual format of the audio and video content. */
@@ -135,6 +179,19 @@ interface AudioOptions {
     limit?: number;
     /** The maximum duration of a audio clip, in seconds. */
     duration?: number;
+    /**
+     * Where the captures are written (defaults to gallery). deferred writes them to app-private
+     * files first and publishes them to the gallery once the capture completes, private keeps
+     * them in the app's own storage and returns file URLs. deferred can't be combined with
+     * onMediaFile or segments. Android only.
+     */
+    storage?: 'gallery' | 'deferred' | 'private';
+    /** Probe each file in the background and return it as MediaFile.formatData. Android only. */
+    formatData?: boolean;
+    /** Return the SHA-256 of each file as MediaFile.hash and detect recaptured content. Android only. */
+    hash?: 'sha256';
+    /** Called with each MediaFile as soon as it is captured, before onSuccess. Android only. */
+    onMediaFile?: (mediaFile: MediaFile) => void;
 }
 
 /** Encapsulates image capture configuration options. */
@@ -144,6 +201,31 @@ interface ImageOptions {
      * The value must be greater than or equal to 1 (defaults to 1).
      */
     limit?: number;
+    /** Output format of the images (defaults to jpeg, Android internal camera only). */
+    encodingType?: 'jpeg' | 'webp' | 'heif';
+    /** Compression quality from 1 to 100, 0 keeps the camera's own JPEG compression. */
+    encodingQuality?: number;
+    /** Maximum width of the upright image in pixels, 0 means unlimited. */
+    maxWidth?: number;
+    /** Maximum height of the upright image in pixels, 0 means unlimited. */
+    maxHeight?: number;
+    /** Take all images back to back without review, Android internal camera only. */
+    burst?: boolean;
+    /** Max width and height in pixels of a thumbnail returned with each image, 0 means none. Android only. */
+    thumbnail?: number;
+    /**
+     * Where the captures are written (defaults to gallery). deferred writes them to app-private
+     * files first and publishes them to the gallery once the capture completes, private keeps
+     * them in the app's own storage and returns file URLs. deferred can't be combined with
+     * onMediaFile or segments. Android only.
+     */
+    storage?: 'gallery' | 'deferred' | 'private';
+    /** Probe each file in the background and return it as MediaFile.formatData. Android only. */
+    formatData?: boolean;
+    /** Return the SHA-256 of each file as MediaFile.hash and detect recaptured content. Android only. */
+    hash?: 'sha256';
+    /** Called with each MediaFile as soon as it is captured, before onSuccess. Android only. */
+    onMediaFile?: (mediaFile: MediaFile) => void;
 }
 
 /** Encapsulates video capture configuration options. */
@@ -155,6 +237,62 @@ interface VideoOptions {
     limit?: number;
     /** The maximum duration of a video clip, in seconds. */
     duration?: number;
+    /** Max width and height of the recording in pixels, 0 means unlimited. Android internal camera only. */
+    maxResolution?: number;
+    /** Video bitrate of the recording in bits per second, 0 keeps the camera default. Android internal camera only. */
+    videoBitrate?: number;
+    /** Audio bitrate of the recording in bits per second, 0 keeps the camera default. Android internal camera only. */
+    audioBitrate?: number;
+    /** Frame rate of the recording, 0 keeps the camera default. Android internal camera only. */
+    frameRate?: number;
+    /** Codec of the recording (defaults to the device default). Android internal camera only. */
+    videoCodec?: 'h264';
+    /**
+     * Roll over to a new file every N seconds while recording. Each segment is passed to
+     * onMediaFile while the recording continues, limit is ignored. Android internal camera only.
+     */
+    segmentDuration?: number;
+    /** Roll over to a new file every N MB while recording, like segmentDuration. Android internal camera only. */
+    segmentSize?: number;
+    /** Max width and height in pixels of a poster frame returned with each video, 0 means none. Android only. */
+    thumbnail?: number;
+    /**
+     * Where the captures are written (defaults to gallery). deferred writes them to app-private
+     * files first and publishes them to the gallery once the capture completes, private keeps
+     * them in the app's own storage and returns file URLs. deferred can't be combined with
+     * onMediaFile or segments. Android only.
+     */
+    storage?: 'gallery' | 'deferred' | 'private';
+    /** Probe each file in the background and return it as MediaFile.formatData. Android only. */
+    formatData?: boolean;
+    /** Return the SHA-256 of each file as MediaFile.hash and detect recaptured content. Android only. */
+    hash?: 'sha256';
+    /**
+     * Re-encode each video after capture with the hardware codecs. The transcoded file replaces
+     * the captured one. Android only.
+     */
+    transcode?: {
+        /** Target codec (defaults to h264), falls back to h264 if there is no HEVC encoder. */
+        codec?: 'h264' | 'hevc';
+        /** Target video bitrate in bits per second, 0 picks one by size and frame rate. */
+        bitrate?: number;
+        /** Max width and height in pixels, 0 keeps the size. */
+        maxSize?: number;
+    };
+    /** Called with each MediaFile as soon as it is captured, before onSuccess. Android only. */
+    onMediaFile?: (mediaFile: MediaFile) => void;
+    /** Called while a file is post-processed, e.g. transcoded. Android only. */
+    onProgress?: (progress: CaptureProgress) => void;
+}
+
+/** Progress of a post-processing stage of a captured file. */
+interface CaptureProgress {
+    /** Position of the file in the results. */
+    index: number;
+    /** Name of the stage, e.g. transcode. */
+    stage: string;
+    /** Progress from 0 to 1. */
+    progress: number;
 }
 
 /** Encapsulates a set of media capture parameters that a device supports. */
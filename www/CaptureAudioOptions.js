@@ -27,6 +27,13 @@ const CaptureAudioOptions = function () {
     this.limit = 1;
     // Maximum duration of a single sound clip in seconds.
     this.duration = 0;
+    // Where captures are written: 'gallery', 'deferred' to publish them to the gallery once the capture completes,
+    // or 'private' for files of the app that never show up in the gallery (Android only).
+    this.storage = 'gallery';
+    // Probe each file while the next one is captured and return it as MediaFile.formatData (Android only).
+    this.formatData = false;
+    // Content hash returned as MediaFile.hash, 'sha256' or empty for none (Android only).
+    this.hash = '';
 };
 
 module.exports = CaptureAudioOptions;
@@ -26,6 +26,24 @@ const CaptureImageOptions = function () {
     // Upper limit of images user can take. Value must be equal or greater than 1.
     this.limit = 1;
     this.confirmCapture = true;
+    // Output format of images: 'jpeg', 'webp' or 'heif' (Android internal camera only).
+    this.encodingType = 'jpeg';
+    // Compression quality 1 - 100, 0 keeps the camera's own JPEG compression (Android internal camera only).
+    this.encodingQuality = 0;
+    // Maximum dimensions of images in pixels, 0 means unlimited (Android internal camera only).
+    this.maxWidth = 0;
+    this.maxHeight = 0;
+    // Take all images back to back without review (Android internal camera only).
+    this.burst = false;
+    // Max width and height in pixels of a thumbnail returned with each image, 0 means none (Android only).
+    this.thumbnail = 0;
+    // Where captures are written: 'gallery', 'deferred' to publish them to the gallery once the capture completes,
+    // or 'private' for files of the app that never show up in the gallery (Android only).
+    this.storage = 'gallery';
+    // Probe each file while the next one is captured and return it as MediaFile.formatData (Android only).
+    this.formatData = false;
+    // Content hash returned as MediaFile.hash, 'sha256' or empty for none (Android only).
+    this.hash = '';
 };
 
 module.exports = CaptureImageOptions;
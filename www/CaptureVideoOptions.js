@@ -29,6 +29,31 @@ const CaptureVideoOptions = function () {
     this.duration = 0;
     // Video quality parameter, 0 means low quality, suitable for MMS messages, and value 1 means high quality.
     this.quality = 1;
+    // Recording profile of the internal camera, 0 or empty keeps the camera default (Android only).
+    // Max width and height in pixels.
+    this.maxResolution = 0;
+    // Video and audio bitrate in bits per second.
+    this.videoBitrate = 0;
+    this.audioBitrate = 0;
+    // Frames per second.
+    this.frameRate = 0;
+    // 'h264' or empty for the device default.
+    this.videoCodec = '';
+    // Roll over to a new file every segmentDuration seconds or segmentSize MB, each segment is a MediaFile
+    // passed to onMediaFile while recording continues, 0 means one file (Android internal camera only).
+    this.segmentDuration = 0;
+    this.segmentSize = 0;
+    // Max width and height in pixels of a poster frame returned with each video, 0 means none (Android only).
+    this.thumbnail = 0;
+    // Where captures are written: 'gallery', 'deferred' to publish them to the gallery once the capture completes,
+    // or 'private' for files of the app that never show up in the gallery (Android only).
+    this.storage = 'gallery';
+    // Probe each file while the next one is captured and return it as MediaFile.formatData (Android only).
+    this.formatData = false;
+    // Content hash returned as MediaFile.hash, 'sha256' or empty for none (Android only).
+    this.hash = '';
+    // Re-encode each video after capture, e.g. { codec: 'hevc', bitrate: 4000000, maxSize: 1280 }, null for none (Android only).
+    this.transcode = null;
 };
 
 module.exports = CaptureVideoOptions;
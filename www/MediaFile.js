@@ -47,6 +47,12 @@ utils.extend(MediaFile, File);
 MediaFile.prototype.getFormatData = function (successCallback, errorCallback) {
     if (typeof this.fullPath === 'undefined' || this.fullPath === null) {
         errorCallback(new CaptureError(CaptureError.CAPTURE_INVALID_ARGUMENT));
+    } else if (this.formatData) {
+        // probed while capturing
+        const formatData = this.formatData;
+        setTimeout(function () {
+            successCallback(formatData);
+        }, 0);
     } else {
         exec(successCallback, errorCallback, 'Capture', 'getFormatData', [this.fullPath, this.type]);
     }
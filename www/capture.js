@@ -21,9 +21,16 @@
 
 const exec = require('cordova/exec');
 const helpers = require('./helpers');
+const CaptureError = require('./CaptureError');
 
 /**
  * Launches a capture of different types.
+ * If options.onMediaFile is set, it is called with each MediaFile as soon as it is captured,
+ * successCB still receives all of them once the capture is complete.
+ * If options.onProgress is set, it is called with {index, stage, progress} while long running
+ * post-processing stages like transcoding work on a file.
+ * Deferred storage moves the files once the capture completes, it can't be combined with
+ * onMediaFile or segments whose MediaFiles are used while the capture continues.
  *
  * @param (DOMString} type
  * @param {Function} successCB
@@ -31,7 +38,33 @@ const helpers = require('./helpers');
  * @param {CaptureVideoOptions} options
  */
 function _capture (type, successCallback, errorCallback, options) {
+    const onMediaFile = options && typeof options.onMediaFile === 'function' ? options.onMediaFile : null;
+    const onProgress = options && typeof options.onProgress === 'function' ? options.onProgress : null;
+    if (options && options.storage === 'deferred' && (onMediaFile || options.segmentDuration > 0 || options.segmentSize > 0)) {
+        if (errorCallback) {
+            errorCallback(new CaptureError(CaptureError.CAPTURE_INVALID_ARGUMENT));
+        }
+        return;
+    }
+    if (onMediaFile || onProgress) {
+        options = Object.assign({}, options, { progressive: !!onMediaFile, progress: !!onProgress });
+        delete options.onMediaFile;
+        delete options.onProgress;
+    }
+
     const win = function (pluginResult) {
+        if (pluginResult && pluginResult.item) {
+            if (onMediaFile) {
+                onMediaFile(helpers.wrapMediaFiles([pluginResult.item])[0]);
+            }
+            return;
+        }
+        if (pluginResult && pluginResult.progress) {
+            if (onProgress) {
+                onProgress(pluginResult.progress);
+            }
+            return;
+        }
         successCallback(helpers.wrapMediaFiles(pluginResult));
     };
     exec(win, errorCallback, 'Capture', type, [options]);
@@ -79,6 +112,51 @@ Capture.prototype.captureVideo = function (successCallback, errorCallback, optio
     _capture('captureVideo', successCallback, errorCallback, options);
 };
 
+/**
+ * Retrieves the format data of many files with a single bridge call. The files are probed in
+ * parallel and the results arrive in chunks.
+ *
+ * @param {Array} files MediaFile objects or paths
+ * @param {Function} successCB called with the MediaFileData of all files in the same order
+ * @param {Function} errorCB
+ * @param {Function} progressCB optional, called with each chunk of {index, data} items
+ */
+Capture.prototype.getFormatDataBatch = function (files, successCallback, errorCallback, progressCallback) {
+    const args = files.map(function (file) {
+        return typeof file === 'string' ? { fullPath: file } : { fullPath: file.fullPath, type: file.type };
+    });
+    const results = args.map(function () {
+        return null;
+    });
+
+    const win = function (chunk) {
+        chunk.items.forEach(function (item) {
+            results[item.index] = item.data;
+        });
+        if (progressCallback) {
+            progressCallback(chunk.items);
+        }
+        if (chunk.done) {
+            successCallback(results);
+        }
+    };
+    exec(win, errorCallback, 'Capture', 'getFormatDataBatch', [args]);
+};
+
+/**
+ * Prepares the next capture ahead of time, so its camera preview shows up faster. The cameras
+ * are looked up and, for deferred and private storage, the target file is created. The next captureImage or captureVideo call with the same options uses
+ * them within 30 seconds.
+ *
+ * @param {String} type 'captureImage' or 'captureVideo'
+ * @param {CaptureImageOptions|CaptureVideoOptions} options the options the capture will use
+ * @param {Function} successCB optional
+ * @param {Function} errorCB optional
+ */
+Capture.prototype.prepareCapture = function (type, options, successCallback, errorCallback) {
+    exec(successCallback, errorCallback, 'Capture', 'prepareCapture', [type, options || null]);
+};
+
 /**
  * Delete a file
  * @param {String} file or content-uri
@@ -20,6 +20,7 @@
  */
 
 const MediaFile = require('./MediaFile');
+const MediaFileData = require('./MediaFileData');
 
 function wrapMediaFiles (pluginResult) {
     const mediaFiles = [];
@@ -43,6 +44,27 @@ function wrapMediaFiles (pluginResult) {
             ? window.WkWebView.convertFilePath(pluginResult[i].fullPath)
             : pluginResult[i].fullPath;
 
+        if (pluginResult[i].metrics) {
+            mediaFile.metrics = pluginResult[i].metrics;
+        }
+
+        if (pluginResult[i].thumbnail) {
+            mediaFile.thumbnail = pluginResult[i].thumbnail;
+        }
+
+        if (pluginResult[i].hash) {
+            mediaFile.hash = pluginResult[i].hash;
+        }
+
+        if (pluginResult[i].duplicateOf) {
+            mediaFile.duplicateOf = pluginResult[i].duplicateOf;
+        }
+
+        if (pluginResult[i].formatData) {
+            const data = pluginResult[i].formatData;
+            mediaFile.formatData = new MediaFileData(data.codecs, data.bitrate, data.height, data.width, data.duration);
+        }
+
         mediaFiles.push(mediaFile);
     }
     return mediaFiles;